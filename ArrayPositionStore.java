@@ -0,0 +1,91 @@
+package ePortfolio;
+
+import java.util.Arrays;
+
+/**
+ * Columnar position store keeping each field in a primitive array.
+ *
+ * @author Me
+ */
+final class ArrayPositionStore extends ColumnarPositionStore {
+
+    /**
+     * Columns of the fields, indexed by slot.
+     */
+    private byte[] types = new byte[16];
+    private int[] quantities = new int[16];
+    private double[] prices = new double[16];
+    private double[] bookValues = new double[16];
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            int length = Math.max(capacity, types.length + (types.length >> 1));
+            types = Arrays.copyOf(types, length);
+            quantities = Arrays.copyOf(quantities, length);
+            prices = Arrays.copyOf(prices, length);
+            bookValues = Arrays.copyOf(bookValues, length);
+        }
+    }
+
+    @Override
+    byte getType(int slot) {
+        return types[slot];
+    }
+
+    @Override
+    void setType(int slot, byte type) {
+        types[slot] = type;
+    }
+
+    @Override
+    int getQuantity(int slot) {
+        return quantities[slot];
+    }
+
+    @Override
+    void setQuantity(int slot, int quantity) {
+        quantities[slot] = quantity;
+    }
+
+    @Override
+    double getPrice(int slot) {
+        return prices[slot];
+    }
+
+    @Override
+    void setPrice(int slot, double price) {
+        prices[slot] = price;
+    }
+
+    @Override
+    double getBookValue(int slot) {
+        return bookValues[slot];
+    }
+
+    @Override
+    void setBookValue(int slot, double bookValue) {
+        bookValues[slot] = bookValue;
+    }
+
+    /**
+     * Sum the market values and book values with a single pass over the
+     * columns.
+     *
+     * @param marketValues Receives the market value sums, indexed by type
+     * @param bookValues Receives the book value sums, indexed by type
+     */
+    @Override
+    void computeTotals(double[] marketValues, double[] bookValues) {
+        int size = size();
+        byte[] types = this.types;
+        int[] quantities = this.quantities;
+        double[] prices = this.prices;
+        double[] bookValueColumn = this.bookValues;
+
+        for (int slot = 0; slot < size; slot++) {
+            marketValues[types[slot]] += quantities[slot] * prices[slot];
+            bookValues[types[slot]] += bookValueColumn[slot];
+        }
+    }
+}
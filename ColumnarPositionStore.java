@@ -0,0 +1,223 @@
+package ePortfolio;
+
+import java.util.Arrays;
+
+/**
+ * Position store shared by all the investments of a portfolio, keeping each
+ * field in its own column so that scans over the whole portfolio read memory
+ * sequentially. The investments of the portfolio are views over a slot,
+ * created on demand.
+ *
+ * Slots are handed out in order, and the slot of a removed investment is
+ * handed out again to the next investment added, so the store never grows
+ * beyond the most investments held at once. The portfolio order is the slot
+ * order, so an investment added after a removal takes the place of the
+ * removed one. Every slot counts the investments it held as its generation,
+ * so a view or a holding of a removed investment is told apart from the
+ * investment now using its slot.
+ *
+ * Symbols and names stay on the heap, in columns of their own. A symbol or
+ * name equal to one added recently shares its copy, so the stock and the
+ * mutual fund of a symbol, or positions repeating a name, keep one string.
+ *
+ * @author Me
+ */
+abstract class ColumnarPositionStore extends PositionStore {
+
+    /**
+     * Type codes of the type column.
+     */
+    static final byte FREE = 0;
+    static final byte STOCK = 1;
+    static final byte MUTUAL_FUND = 2;
+
+    /**
+     * Number of recently added strings remembered for sharing, a power of
+     * two.
+     */
+    private static final int RECENT_STRINGS = 4096;
+
+    /**
+     * Number of slots handed out so far, including freed ones.
+     */
+    private int size;
+
+    /**
+     * Generation of every slot, raised each time the slot is freed.
+     */
+    private int[] generations = new int[16];
+
+    /**
+     * Freed slots waiting to be handed out again, the last freed first.
+     */
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    /**
+     * Columns of the symbols and names, null for freed slots.
+     */
+    private String[] symbols = new String[16];
+    private String[] names = new String[16];
+
+    /**
+     * Strings added recently, by hash. A newer string replaces the one with
+     * the same position, so the cache never grows.
+     */
+    private final String[] recent = new String[RECENT_STRINGS];
+
+    /**
+     * Return the number of slots handed out so far, including freed ones.
+     *
+     * @return Number of slots
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Hand out a slot for a new investment, the last freed one if any.
+     *
+     * @param type Type code of the investment
+     * @param symbol Symbol of the investment
+     * @param name Name of the investment
+     * @return Slot
+     */
+    int allocate(byte type, String symbol, String name) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = size++;
+            ensureCapacity(size);
+            if (size > symbols.length) {
+                int length = Math.max(size, symbols.length + (symbols.length >> 1));
+                symbols = Arrays.copyOf(symbols, length);
+                names = Arrays.copyOf(names, length);
+                generations = Arrays.copyOf(generations, length);
+            }
+        }
+
+        setType(slot, type);
+        symbols[slot] = share(symbol);
+        names[slot] = share(name);
+        return slot;
+    }
+
+    /**
+     * Return the copy of a string added recently, or remember this one.
+     *
+     * @param text Symbol or name
+     * @return Equal string to keep
+     */
+    private String share(String text) {
+        int hash = text.hashCode();
+        int position = (hash ^ (hash >>> 16)) & (RECENT_STRINGS - 1);
+        String shared = recent[position];
+        if (text.equals(shared)) {
+            return shared;
+        }
+        recent[position] = text;
+        return text;
+    }
+
+    /**
+     * Free the slot of a removed investment, to be handed out again.
+     *
+     * @param slot Slot of the removed investment
+     */
+    void free(int slot) {
+        setType(slot, FREE);
+        symbols[slot] = null;
+        names[slot] = null;
+        generations[slot]++;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Return whether a slot holds an investment.
+     *
+     * @param slot Slot
+     * @return If the slot was handed out and not freed
+     */
+    boolean isLive(int slot) {
+        return getType(slot) != FREE;
+    }
+
+    /**
+     * Return whether a slot still holds the investment of a generation.
+     *
+     * @param slot Slot of the investment
+     * @param generation Generation of the slot when the investment was seen
+     * @return If the investment was not removed
+     */
+    @Override
+    boolean isLive(int slot, int generation) {
+        return getType(slot) != FREE && generations[slot] == generation;
+    }
+
+    @Override
+    int getGeneration(int slot) {
+        return generations[slot];
+    }
+
+    /**
+     * Return the symbol.
+     *
+     * @param slot Slot of the investment
+     * @return Symbol, null if the slot was freed
+     */
+    String getSymbol(int slot) {
+        return symbols[slot];
+    }
+
+    /**
+     * Return the name.
+     *
+     * @param slot Slot of the investment
+     * @return Name, null if the slot was freed
+     */
+    String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Sum the market values and book values of every investment, by type
+     * code. Freed slots add to the FREE entries, which are not used.
+     *
+     * @param marketValues Receives the market value sums, indexed by type
+     * @param bookValues Receives the book value sums, indexed by type
+     */
+    void computeTotals(double[] marketValues, double[] bookValues) {
+        for (int slot = 0; slot < size; slot++) {
+            byte type = getType(slot);
+            marketValues[type] += getQuantity(slot) * getPrice(slot);
+            bookValues[type] += getBookValue(slot);
+        }
+    }
+
+    /**
+     * Make room for at least the given number of slots.
+     *
+     * @param capacity Number of slots needed
+     */
+    abstract void ensureCapacity(int capacity);
+
+    /**
+     * Return the type code of a slot.
+     *
+     * @param slot Slot
+     * @return Type code
+     */
+    abstract byte getType(int slot);
+
+    /**
+     * Update the type code of a slot.
+     *
+     * @param slot Slot
+     * @param type Type code
+     */
+    abstract void setType(int slot, byte type);
+}
@@ -0,0 +1,176 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Columnar position store kept outside the Java heap, either in direct
+ * buffers or in a memory mapped file, so that very large portfolios do not
+ * weigh on the garbage collector. Slots are grouped in fixed size segments
+ * which are added as the store grows, so growing never copies.
+ *
+ * Each segment holds the price column, then the book value column, then the
+ * quantity column and finally the type column.
+ *
+ * Only the numbers and the type, 21 bytes per position, leave the heap. The
+ * symbols and names stay in the heap columns of ColumnarPositionStore, where
+ * recurring strings share one copy.
+ *
+ * The mapped file is a scratch store: it only extends memory beyond the
+ * heap, and it is truncated on every start, so nothing is ever read back
+ * from it. The portfolio file and its journal remain the durable copy.
+ *
+ * @author Me
+ */
+final class DirectPositionStore extends ColumnarPositionStore {
+
+    /**
+     * Number of slots per segment, as a power of two.
+     */
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_SLOTS = 1 << SEGMENT_SHIFT;
+    private static final int SLOT_MASK = SEGMENT_SLOTS - 1;
+
+    /**
+     * Offsets of the columns within a segment.
+     */
+    private static final int PRICES = 0;
+    private static final int BOOK_VALUES = PRICES + SEGMENT_SLOTS * Double.BYTES;
+    private static final int QUANTITIES = BOOK_VALUES + SEGMENT_SLOTS * Double.BYTES;
+    private static final int TYPES = QUANTITIES + SEGMENT_SLOTS * Integer.BYTES;
+    private static final int SEGMENT_BYTES = TYPES + SEGMENT_SLOTS;
+
+    /**
+     * File backing the segments, or null for direct buffers.
+     */
+    private final Path file;
+
+    /**
+     * Segments allocated so far.
+     */
+    private ByteBuffer[] segments = new ByteBuffer[0];
+
+    /**
+     * Initialize a store in direct buffers.
+     */
+    DirectPositionStore() {
+        this(null);
+    }
+
+    /**
+     * Initialize a store mapped to a scratch file, discarding its contents.
+     *
+     * @param file File backing the store, or null for direct buffers
+     */
+    DirectPositionStore(Path file) {
+        this.file = file;
+
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open position store '" + file + "'", e);
+            }
+        }
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        int needed = (capacity + SLOT_MASK) >>> SEGMENT_SHIFT;
+        if (needed <= segments.length) {
+            return;
+        }
+
+        int count = segments.length;
+        segments = Arrays.copyOf(segments, needed);
+        for (int i = count; i < needed; i++) {
+            segments[i] = allocateSegment(i);
+        }
+    }
+
+    /**
+     * Allocate one segment, zero filled.
+     *
+     * @param index Position of the segment
+     * @return Segment
+     */
+    private ByteBuffer allocateSegment(int index) {
+        if (file == null) {
+            return ByteBuffer.allocateDirect(SEGMENT_BYTES).order(ByteOrder.nativeOrder());
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * SEGMENT_BYTES, SEGMENT_BYTES).order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot grow position store '" + file + "'", e);
+        }
+    }
+
+    @Override
+    byte getType(int slot) {
+        return segments[slot >>> SEGMENT_SHIFT].get(TYPES + (slot & SLOT_MASK));
+    }
+
+    @Override
+    void setType(int slot, byte type) {
+        segments[slot >>> SEGMENT_SHIFT].put(TYPES + (slot & SLOT_MASK), type);
+    }
+
+    @Override
+    int getQuantity(int slot) {
+        return segments[slot >>> SEGMENT_SHIFT].getInt(QUANTITIES + (slot & SLOT_MASK) * Integer.BYTES);
+    }
+
+    @Override
+    void setQuantity(int slot, int quantity) {
+        segments[slot >>> SEGMENT_SHIFT].putInt(QUANTITIES + (slot & SLOT_MASK) * Integer.BYTES, quantity);
+    }
+
+    @Override
+    double getPrice(int slot) {
+        return segments[slot >>> SEGMENT_SHIFT].getDouble(PRICES + (slot & SLOT_MASK) * Double.BYTES);
+    }
+
+    @Override
+    void setPrice(int slot, double price) {
+        segments[slot >>> SEGMENT_SHIFT].putDouble(PRICES + (slot & SLOT_MASK) * Double.BYTES, price);
+    }
+
+    @Override
+    double getBookValue(int slot) {
+        return segments[slot >>> SEGMENT_SHIFT].getDouble(BOOK_VALUES + (slot & SLOT_MASK) * Double.BYTES);
+    }
+
+    @Override
+    void setBookValue(int slot, double bookValue) {
+        segments[slot >>> SEGMENT_SHIFT].putDouble(BOOK_VALUES + (slot & SLOT_MASK) * Double.BYTES, bookValue);
+    }
+
+    /**
+     * Sum the market values and book values, scanning each segment's columns
+     * in order.
+     *
+     * @param marketValues Receives the market value sums, indexed by type
+     * @param bookValues Receives the book value sums, indexed by type
+     */
+    @Override
+    void computeTotals(double[] marketValues, double[] bookValues) {
+        int size = size();
+
+        for (int segment = 0; segment * SEGMENT_SLOTS < size; segment++) {
+            ByteBuffer buffer = segments[segment];
+            int slots = Math.min(SEGMENT_SLOTS, size - segment * SEGMENT_SLOTS);
+            for (int i = 0; i < slots; i++) {
+                byte type = buffer.get(TYPES + i);
+                marketValues[type] += buffer.getInt(QUANTITIES + i * Integer.BYTES) * buffer.getDouble(PRICES + i * Double.BYTES);
+                bookValues[type] += buffer.getDouble(BOOK_VALUES + i * Double.BYTES);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ePortfolio;
+
+/**
+ * Immutable state of one investment as seen by a portfolio snapshot.
+ *
+ * @author Me
+ */
+public final class Holding {
+
+    /**
+     * Identifier of the investment in its portfolio.
+     */
+    final int id;
+
+    /**
+     * Generation of the slot of the investment, telling it apart from later
+     * investments given the same identifier.
+     */
+    final int generation;
+
+    /**
+     * Whether the investment is a stock rather than a mutual fund.
+     */
+    private final boolean stock;
+
+    /**
+     * Symbol and name of the investment.
+     */
+    private final String symbol;
+    private final String name;
+
+    /**
+     * Quantity, price and book value at the time of the snapshot.
+     */
+    private final int quantity;
+    private final double price;
+    private final double bookValue;
+
+    /**
+     * Capture the current state of an investment.
+     *
+     * @param investment Investment belonging to a portfolio
+     */
+    Holding(Investment investment) {
+        this.id = investment.getSlot();
+        this.generation = investment.getGeneration();
+        this.stock = investment instanceof Stock;
+        this.symbol = investment.getSymbol();
+        this.name = investment.getName();
+        this.quantity = investment.getQuantity();
+        this.price = investment.getPrice();
+        this.bookValue = investment.getBookValue();
+    }
+
+    /**
+     * Return whether the investment is a stock.
+     *
+     * @return If stock, otherwise a mutual fund
+     */
+    public boolean isStock() {
+        return stock;
+    }
+
+    /**
+     * Return the symbol.
+     *
+     * @return Symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Return the name.
+     *
+     * @return Name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the quantity.
+     *
+     * @return Quantity
+     */
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Return the price.
+     *
+     * @return Price
+     */
+    public double getPrice() {
+        return price;
+    }
+
+    /**
+     * Return the book value.
+     *
+     * @return Book value
+     */
+    public double getBookValue() {
+        return bookValue;
+    }
+
+    /**
+     * Get the gain or loss amount depending on the price of the snapshot.
+     *
+     * @return A gain or loss amount
+     */
+    public double computeUnrealizedGainOrLoss() {
+        return quantity * price - bookValue;
+    }
+
+    /**
+     * Return a string representation in the same form as the investment.
+     *
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder(160);
+        InvestmentFormatter.appendTo(str, this);
+        return str.toString();
+    }
+}
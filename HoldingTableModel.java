@@ -0,0 +1,125 @@
+package ePortfolio;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model over a list of holdings or a portfolio snapshot. Cells are
+ * read from the holdings when the table asks for them, so only the visible
+ * rows are ever formatted.
+ *
+ * @author Me
+ */
+class HoldingTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Rows read straight from a snapshot, which never changes.
+     */
+    private static final class SnapshotRows extends AbstractList<Holding> implements RandomAccess {
+
+        /**
+         * Snapshot shown.
+         */
+        private final PortfolioSnapshot snapshot;
+
+        /**
+         * Initialize the rows.
+         *
+         * @param snapshot Snapshot shown
+         */
+        SnapshotRows(PortfolioSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public Holding get(int index) {
+            return snapshot.get(index);
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size();
+        }
+    }
+
+    /**
+     * Column titles.
+     */
+    private static final String[] COLUMN_NAMES = {"Type", "Symbol", "Name", "Shares", "Price", "Book Value", "Gain/Loss"};
+
+    /**
+     * Column types, numeric columns sort by value.
+     */
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, String.class, String.class, Integer.class, Double.class, Double.class, Double.class};
+
+    /**
+     * Holdings shown, one per row.
+     */
+    private List<Holding> holdings = Collections.emptyList();
+
+    /**
+     * Replace the holdings shown.
+     *
+     * @param holdings Holdings, not changed afterwards
+     */
+    public void setHoldings(List<Holding> holdings) {
+        this.holdings = holdings;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Show the holdings of a snapshot in portfolio order, without copying
+     * them.
+     *
+     * @param snapshot Snapshot of a portfolio
+     */
+    public void setSnapshot(PortfolioSnapshot snapshot) {
+        setHoldings(new SnapshotRows(snapshot));
+    }
+
+    @Override
+    public int getRowCount() {
+        return holdings.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Holding holding = holdings.get(row);
+        switch (column) {
+            case 0:
+                return holding.isStock() ? "Stock" : "Mutual Fund";
+            case 1:
+                return holding.getSymbol();
+            case 2:
+                return holding.getName();
+            case 3:
+                return holding.getQuantity();
+            case 4:
+                return holding.getPrice();
+            case 5:
+                return holding.getBookValue();
+            default:
+                return holding.computeUnrealizedGainOrLoss();
+        }
+    }
+}
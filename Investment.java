@@ -1,9 +1,16 @@
 package ePortfolio;
 
-import java.text.DecimalFormat;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An abstract common parent class for all type of investments (stocks, funds)
+ *
+ * An investment of a portfolio is a view over a slot of the portfolio's
+ * position store, created whenever the portfolio hands one out, so two views
+ * of the same investment may be different objects. Once the investment is
+ * removed, its views refuse any change, even after its slot is used by
+ * another investment. An investment created with new keeps its fields in a
+ * store of its own until it is added to a portfolio.
  */
 public abstract class Investment {
 
@@ -18,19 +25,39 @@ public abstract class Investment {
     private final String name;
 
     /**
-     * Quantity purchased by a shareholder.
+     * Store holding the quantity, price and book value. An investment has its
+     * own store until it is added to a portfolio, which moves the fields into
+     * the store shared by all its investments.
      */
-    private int quantity;
+    private PositionStore store;
 
     /**
-     * Price spent by the shareholder to purchase this number of shares.
+     * Slot of this investment in the store, which also identifies it in the
+     * portfolio holding it.
      */
-    private double price;
+    private int slot;
 
     /**
-     * Market value of the investment.
+     * Generation of the slot when this investment was put in it.
      */
-    protected double bookValue;
+    private int generation;
+
+    /**
+     * Listener of the portfolio holding this investment, if any.
+     */
+    volatile InvestmentListener listener;
+
+    /**
+     * Locks making each change of quantity, price and book value atomic,
+     * shared by investments whose symbols hash alike.
+     */
+    private static final ReentrantLock[] STRIPES = new ReentrantLock[64];
+
+    static {
+        for (int i = 0; i < STRIPES.length; i++) {
+            STRIPES[i] = new ReentrantLock();
+        }
+    }
 
     /**
      * Initialize an investment. The book value will be automatically calculated
@@ -62,9 +89,7 @@ public abstract class Investment {
 
         this.symbol = symbol;
         this.name = name;
-        this.quantity = quantity;
-        this.price = price;
-        bookValue = price * quantity;
+        store = new DetachedPosition(quantity, price, price * quantity + getPurchaseFee());
     }
 
     /**
@@ -98,9 +123,23 @@ public abstract class Investment {
 
         this.symbol = symbol;
         this.name = name;
-        this.quantity = quantity;
-        this.price = price;
-        this.bookValue = bookValue;
+        store = new DetachedPosition(quantity, price, bookValue);
+    }
+
+    /**
+     * Initialize a view of an investment held by a portfolio.
+     *
+     * @param store Position store of the portfolio
+     * @param slot Slot of the investment
+     * @param listener Listener of the portfolio
+     */
+    Investment(ColumnarPositionStore store, int slot, InvestmentListener listener) {
+        this.symbol = store.getSymbol(slot);
+        this.name = store.getName(slot);
+        this.store = store;
+        this.slot = slot;
+        this.generation = store.getGeneration(slot);
+        this.listener = listener;
     }
 
     /**
@@ -115,8 +154,31 @@ public abstract class Investment {
             throw new IllegalArgumentException("Invalid quantity.");
         }
 
-        quantity += additionalQuantity;
-        bookValue += additionalQuantity * price;
+        InvestmentListener owner = beginChange();
+        try {
+            int oldQuantity = store.getQuantity(slot);
+            double price = store.getPrice(slot);
+            double oldBookValue = store.getBookValue(slot);
+
+            store.setQuantity(slot, oldQuantity + additionalQuantity);
+            store.setBookValue(slot, oldBookValue + additionalQuantity * price + getPurchaseFee());
+
+            if (owner != null) {
+                owner.investmentChanged(this, oldQuantity, price, oldBookValue);
+            }
+        } finally {
+            endChange(owner);
+        }
+    }
+
+    /**
+     * Return the commission added to the book value whenever additional
+     * shares are purchased.
+     *
+     * @return Purchase fee
+     */
+    protected double getPurchaseFee() {
+        return 0;
     }
 
     /**
@@ -133,16 +195,28 @@ public abstract class Investment {
             throw new IllegalArgumentException("Invalid quantity.");
         }
 
-        if (reduceQuantity > quantity) {
-            throw new IllegalArgumentException("Insufficient shares.");
-        }
+        InvestmentListener owner = beginChange();
+        try {
+            int previousQuantity = store.getQuantity(slot);
+            if (reduceQuantity > previousQuantity) {
+                throw new IllegalArgumentException("Insufficient shares.");
+            }
+
+            double price = store.getPrice(slot);
+            double previousBookValue = store.getBookValue(slot);
+            int quantity = previousQuantity - reduceQuantity;
 
-        int previousQuantity = quantity;
+            store.setQuantity(slot, quantity);
+            store.setBookValue(slot, previousBookValue * ((double) quantity / previousQuantity));
 
-        quantity -= reduceQuantity;
-        bookValue *= (double) quantity / previousQuantity;
+            if (owner != null) {
+                owner.investmentChanged(this, previousQuantity, price, previousBookValue);
+            }
 
-        return reduceQuantity * price;
+            return reduceQuantity * price;
+        } finally {
+            endChange(owner);
+        }
     }
 
     /**
@@ -151,7 +225,7 @@ public abstract class Investment {
      * @return A gain or loss amount
      */
     public double computeUnrealizedGainOrLoss() {
-        return quantity * price - bookValue;
+        return store.getQuantity(slot) * store.getPrice(slot) - store.getBookValue(slot);
     }
 
     /**
@@ -165,7 +239,142 @@ public abstract class Investment {
             throw new IllegalArgumentException("Positive investment price is required.");
         }
 
-        this.price = price;
+        InvestmentListener owner = beginChange();
+        try {
+            double oldPrice = store.getPrice(slot);
+            store.setPrice(slot, price);
+
+            if (owner != null) {
+                owner.investmentChanged(this, store.getQuantity(slot), oldPrice, store.getBookValue(slot));
+            }
+        } finally {
+            endChange(owner);
+        }
+    }
+
+    /**
+     * Overwrite the state of the investment, used when replaying the changes
+     * recorded in a portfolio journal.
+     *
+     * @param quantity Quantity
+     * @param price Price
+     * @param bookValue Book value
+     */
+    void restore(int quantity, double price, double bookValue) {
+        InvestmentListener owner = beginChange();
+        try {
+            int oldQuantity = store.getQuantity(slot);
+            double oldPrice = store.getPrice(slot);
+            double oldBookValue = store.getBookValue(slot);
+
+            store.setQuantity(slot, quantity);
+            store.setPrice(slot, price);
+            store.setBookValue(slot, bookValue);
+
+            if (owner != null) {
+                owner.investmentChanged(this, oldQuantity, oldPrice, oldBookValue);
+            }
+        } finally {
+            endChange(owner);
+        }
+    }
+
+    /**
+     * Take the locks for changing this investment: those of the portfolio
+     * holding it, then the stripe of its symbol. The portfolio is checked
+     * again once locked, in case the investment was removed meanwhile.
+     *
+     * @return Listener of the portfolio holding the investment, if any
+     * @throws IllegalStateException If the investment was removed from the
+     * portfolio through another view
+     */
+    private InvestmentListener beginChange() {
+        ReentrantLock stripe = STRIPES[stripeIndex()];
+        while (true) {
+            InvestmentListener owner = listener;
+            if (owner != null) {
+                owner.beginChange(this);
+            }
+            stripe.lock();
+            if (listener == owner) {
+                if (!store.isLive(slot, generation)) {
+                    endChange(owner);
+                    throw new IllegalStateException("Investment was removed from the portfolio.");
+                }
+                return owner;
+            }
+
+            stripe.unlock();
+            if (owner != null) {
+                owner.endChange(this);
+            }
+        }
+    }
+
+    /**
+     * Release the locks taken by beginChange.
+     *
+     * @param owner Listener returned by beginChange
+     */
+    private void endChange(InvestmentListener owner) {
+        STRIPES[stripeIndex()].unlock();
+        if (owner != null) {
+            owner.endChange(this);
+        }
+    }
+
+    /**
+     * Return the stripe of the symbol.
+     *
+     * @return Position in STRIPES
+     */
+    private int stripeIndex() {
+        int hash = symbol.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES.length - 1);
+    }
+
+    /**
+     * Move the fields into a slot of another store.
+     *
+     * @param target Store to move to
+     * @param targetSlot Slot in the target store
+     */
+    void attach(PositionStore target, int targetSlot) {
+        target.setQuantity(targetSlot, store.getQuantity(slot));
+        target.setPrice(targetSlot, store.getPrice(slot));
+        target.setBookValue(targetSlot, store.getBookValue(slot));
+        store = target;
+        slot = targetSlot;
+        generation = target.getGeneration(targetSlot);
+    }
+
+    /**
+     * Move the fields out of the shared store into a store of its own.
+     */
+    void detach() {
+        store = new DetachedPosition(store.getQuantity(slot), store.getPrice(slot), store.getBookValue(slot));
+        slot = 0;
+        generation = 0;
+    }
+
+    /**
+     * Return the slot of this investment in its store, which is also its
+     * identifier in the portfolio holding it.
+     *
+     * @return Slot
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Return the generation of the slot when this investment was put in it,
+     * telling it apart from later investments using the same slot.
+     *
+     * @return Generation
+     */
+    int getGeneration() {
+        return generation;
     }
 
     /**
@@ -192,7 +401,7 @@ public abstract class Investment {
      * @return Quantity
      */
     public int getQuantity() {
-        return quantity;
+        return store.getQuantity(slot);
     }
 
     /**
@@ -201,7 +410,7 @@ public abstract class Investment {
      * @return Price
      */
     public double getPrice() {
-        return price;
+        return store.getPrice(slot);
     }
 
     /**
@@ -210,7 +419,7 @@ public abstract class Investment {
      * @return Book Value
      */
     public double getBookValue() {
-        return bookValue;
+        return store.getBookValue(slot);
     }
 
     /**
@@ -220,17 +429,64 @@ public abstract class Investment {
      */
     @Override
     public String toString() {
-        DecimalFormat decimalFormat = new DecimalFormat("#.##");
-        decimalFormat.setGroupingUsed(true);
-
-        String str = "";
-        str += "Symbol: " + symbol + "\n";
-        str += "Name: " + name + "\n";
-        str += "Shares: " + quantity + "\n";
-        str += "Price: $" + decimalFormat.format(price) + "\n";
-        str += "Book Value: $" + decimalFormat.format(bookValue) + "\n";
-        str += "Unrealized Gain/Loss: $" + decimalFormat.format(computeUnrealizedGainOrLoss());
-
-        return str;
+        StringBuilder str = new StringBuilder(128);
+        InvestmentFormatter.appendFields(str, symbol, name, getQuantity(), getPrice(), getBookValue());
+        return str.toString();
+    }
+
+    /**
+     * Store of a single investment that does not belong to a portfolio.
+     */
+    private static final class DetachedPosition extends PositionStore {
+
+        /**
+         * Fields of the investment.
+         */
+        private int quantity;
+        private double price;
+        private double bookValue;
+
+        /**
+         * Initialize the store.
+         *
+         * @param quantity Quantity
+         * @param price Price
+         * @param bookValue Book value
+         */
+        DetachedPosition(int quantity, double price, double bookValue) {
+            this.quantity = quantity;
+            this.price = price;
+            this.bookValue = bookValue;
+        }
+
+        @Override
+        int getQuantity(int slot) {
+            return quantity;
+        }
+
+        @Override
+        void setQuantity(int slot, int quantity) {
+            this.quantity = quantity;
+        }
+
+        @Override
+        double getPrice(int slot) {
+            return price;
+        }
+
+        @Override
+        void setPrice(int slot, double price) {
+            this.price = price;
+        }
+
+        @Override
+        double getBookValue(int slot) {
+            return bookValue;
+        }
+
+        @Override
+        void setBookValue(int slot, double bookValue) {
+            this.bookValue = bookValue;
+        }
     }
 }
@@ -0,0 +1,150 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+
+/**
+ * Formats investments for display and reports, appending to a buffer given
+ * by the caller. Amounts look like DecimalFormat("#.##") output but are
+ * written digit by digit, so formatting allocates nothing per field.
+ *
+ * @author Me
+ */
+public final class InvestmentFormatter {
+
+    /**
+     * Largest magnitude, in cents, that is formatted by hand.
+     */
+    private static final double MAX_FAST_CENTS = 1L << 52;
+
+    /**
+     * Formatter for the rare amounts that are not formatted by hand, one per
+     * thread since DecimalFormat is not thread safe.
+     */
+    private static final ThreadLocal<DecimalFormat> DECIMAL_FORMAT = ThreadLocal.withInitial(() -> {
+        DecimalFormat decimalFormat = new DecimalFormat("#.##");
+        decimalFormat.setGroupingUsed(true);
+        return decimalFormat;
+    });
+
+    /**
+     * Buffer reused when appending to an Appendable, one per thread.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private InvestmentFormatter() {
+    }
+
+    /**
+     * Append the description of an investment, the same text as its
+     * toString.
+     *
+     * @param out Destination
+     * @param investment Investment to describe
+     */
+    public static void appendTo(StringBuilder out, Investment investment) {
+        out.append(investment instanceof Stock ? "Type: Stock\n" : "Type: Mutual Fund\n");
+        appendFields(out, investment.getSymbol(), investment.getName(), investment.getQuantity(), investment.getPrice(), investment.getBookValue());
+    }
+
+    /**
+     * Append the description of a holding, in the same form as an
+     * investment.
+     *
+     * @param out Destination
+     * @param holding Holding to describe
+     */
+    public static void appendTo(StringBuilder out, Holding holding) {
+        out.append(holding.isStock() ? "Type: Stock\n" : "Type: Mutual Fund\n");
+        appendFields(out, holding.getSymbol(), holding.getName(), holding.getQuantity(), holding.getPrice(), holding.getBookValue());
+    }
+
+    /**
+     * Append the description of an investment to any destination, such as a
+     * Writer, through a buffer kept by the thread.
+     *
+     * @param out Destination
+     * @param investment Investment to describe
+     * @throws IOException If appending fails
+     */
+    public static void appendTo(Appendable out, Investment investment) throws IOException {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        appendTo(buffer, investment);
+        out.append(buffer);
+    }
+
+    /**
+     * Append the fields shared by every kind of investment, without the
+     * type.
+     *
+     * @param out Destination
+     * @param symbol Symbol
+     * @param name Name
+     * @param quantity Quantity
+     * @param price Price
+     * @param bookValue Book value
+     */
+    static void appendFields(StringBuilder out, String symbol, String name, int quantity, double price, double bookValue) {
+        out.append("Symbol: ").append(symbol).append('\n');
+        out.append("Name: ").append(name).append('\n');
+        out.append("Shares: ").append(quantity).append('\n');
+        out.append("Price: $");
+        appendAmount(out, price);
+        out.append("\nBook Value: $");
+        appendAmount(out, bookValue);
+        out.append("\nUnrealized Gain/Loss: $");
+        appendAmount(out, quantity * price - bookValue);
+    }
+
+    /**
+     * Return an amount formatted with at most two decimals.
+     *
+     * @param value Amount
+     * @return Formatted amount
+     */
+    public static String formatAmount(double value) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        appendAmount(buffer, value);
+        return buffer.toString();
+    }
+
+    /**
+     * Append an amount rounded half even to at most two decimals, without
+     * trailing zeros, like DecimalFormat("#.##"). Amounts next to a tie,
+     * where the shortest decimal form and the binary value could round
+     * differently, and very large or non finite ones use DecimalFormat.
+     *
+     * @param out Destination
+     * @param value Amount
+     */
+    public static void appendAmount(StringBuilder out, double value) {
+        double scaled = Math.abs(value) * 100;
+        double whole = Math.floor(scaled);
+        double fraction = scaled - whole;
+        if (!(scaled < MAX_FAST_CENTS) || Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled)) {
+            out.append(DECIMAL_FORMAT.get().format(value));
+            return;
+        }
+
+        long cents = (long) whole + (fraction > 0.5 ? 1 : 0);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            // DecimalFormat keeps the sign of negative amounts rounding to zero
+            out.append('-');
+        }
+
+        out.append(cents / 100);
+        int remainder = (int) (cents % 100);
+        if (remainder != 0) {
+            out.append('.');
+            if (remainder < 10) {
+                out.append('0').append(remainder);
+            } else if (remainder % 10 == 0) {
+                out.append(remainder / 10);
+            } else {
+                out.append(remainder);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ePortfolio;
+
+/**
+ * Receives notifications about changes made to an investment, so that the
+ * portfolio holding it can keep its indices up to date. The portfolio is
+ * also asked for its locks around every change.
+ *
+ * @author Me
+ */
+interface InvestmentListener {
+
+    /**
+     * Called before the investment is read to be changed.
+     *
+     * @param investment The investment about to change
+     */
+    void beginChange(Investment investment);
+
+    /**
+     * Called once the change is over, whether it succeeded or not.
+     *
+     * @param investment The investment that was changing
+     */
+    void endChange(Investment investment);
+
+    /**
+     * Called after the investment has been changed.
+     *
+     * @param investment The changed investment
+     * @param oldQuantity Quantity before the change
+     * @param oldPrice Price before the change
+     * @param oldBookValue Book value before the change
+     */
+    void investmentChanged(Investment investment, int oldQuantity, double oldPrice, double oldBookValue);
+}
@@ -0,0 +1,186 @@
+package ePortfolio;
+
+/**
+ * Search criteria for finding investments in a portfolio. Empty symbol or
+ * keywords and a missing type match every investment.
+ *
+ * @author Me
+ */
+public class InvestmentQuery {
+
+    /**
+     * Target symbol, compared ignoring case.
+     */
+    private final String symbol;
+
+    /**
+     * Lower case keywords that must all appear in the investment name.
+     */
+    private final String[] keywords;
+
+    /**
+     * Target minimum price.
+     */
+    private final double lowPrice;
+
+    /**
+     * Target maximum price.
+     */
+    private final double highPrice;
+
+    /**
+     * Target kind of investment, or null for any kind.
+     */
+    private final Class<? extends Investment> type;
+
+    /**
+     * Initialize a query for any kind of investment.
+     *
+     * @param symbol Target symbol
+     * @param keywords Target keywords separated by whitespace
+     * @param lowPrice Target minimum price
+     * @param highPrice Target maximum price
+     */
+    public InvestmentQuery(String symbol, String keywords, double lowPrice, double highPrice) {
+        this(symbol, keywords, lowPrice, highPrice, null);
+    }
+
+    /**
+     * Initialize a query.
+     *
+     * @param symbol Target symbol
+     * @param keywords Target keywords separated by whitespace
+     * @param lowPrice Target minimum price
+     * @param highPrice Target maximum price
+     * @param type Target kind of investment, or null for any kind
+     */
+    public InvestmentQuery(String symbol, String keywords, double lowPrice, double highPrice, Class<? extends Investment> type) {
+        this.symbol = symbol.trim();
+        this.keywords = keywords.trim().isEmpty() ? new String[0] : keywords.trim().toLowerCase().split("\\s+");
+        this.lowPrice = lowPrice;
+        this.highPrice = highPrice;
+        this.type = type;
+    }
+
+    /**
+     * Return the target symbol.
+     *
+     * @return Symbol, empty for any symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Return the lower case target keywords.
+     *
+     * @return Keywords, empty for any name
+     */
+    public String[] getKeywords() {
+        return keywords.clone();
+    }
+
+    /**
+     * Return the target minimum price.
+     *
+     * @return Low price
+     */
+    public double getLowPrice() {
+        return lowPrice;
+    }
+
+    /**
+     * Return the target maximum price.
+     *
+     * @return High price
+     */
+    public double getHighPrice() {
+        return highPrice;
+    }
+
+    /**
+     * Return the target kind of investment.
+     *
+     * @return Type, null for any kind
+     */
+    public Class<? extends Investment> getType() {
+        return type;
+    }
+
+    /**
+     * Return whether the query filters by symbol.
+     *
+     * @return If a symbol is given
+     */
+    boolean hasSymbol() {
+        return !symbol.isEmpty();
+    }
+
+    /**
+     * Return whether the query filters by keywords.
+     *
+     * @return If keywords are given
+     */
+    boolean hasKeywords() {
+        return keywords.length > 0;
+    }
+
+    /**
+     * Return whether the query narrows the price range. Investment prices are
+     * always positive, so a range from zero up to the largest double does not.
+     *
+     * @return If a price range is given
+     */
+    boolean hasPriceRange() {
+        return lowPrice > 0 || highPrice < Double.MAX_VALUE;
+    }
+
+    /**
+     * Check the investment against every criteria but the keywords, which are
+     * answered by the keyword index.
+     *
+     * @param investment Investment to check
+     * @return If the investment matches
+     */
+    boolean matchesIgnoringKeywords(Investment investment) {
+        if (type != null && !type.isInstance(investment)) {
+            return false;
+        }
+
+        if (hasSymbol() && !investment.getSymbol().equalsIgnoreCase(symbol)) {
+            return false;
+        }
+
+        double price = investment.getPrice();
+        return price >= lowPrice && price <= highPrice;
+    }
+
+    /**
+     * Check the investment against every criteria.
+     *
+     * @param investment Investment to check
+     * @return If the investment matches
+     */
+    boolean matches(Investment investment) {
+        if (!matchesIgnoringKeywords(investment)) {
+            return false;
+        }
+
+        String[] tokens = investment.getName().toLowerCase().split("\\s+");
+        for (String keyword : keywords) {
+            boolean found = false;
+            for (String token : tokens) {
+                if (token.equals(keyword)) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -45,6 +45,17 @@ public class MutualFund extends Investment{
         super(fundSymbol, fundName, fundQuantity, fundPrice, bookValue);
     }
 
+    /**
+     * Initialize a view of a mutual fund held by a portfolio.
+     *
+     * @param store Position store of the portfolio
+     * @param slot Slot of the mutual fund
+     * @param listener Listener of the portfolio
+     */
+    MutualFund(ColumnarPositionStore store, int slot, InvestmentListener listener) {
+        super(store, slot, listener);
+    }
+
     /**
      * Reduce the number of shares. The shares will be sold back to the fund
      * manager in exchange of cash based on current prices.
@@ -65,8 +76,8 @@ public class MutualFund extends Investment{
      */
     @Override
     public String toString() {
-        String str = "Type: Mutual Fund\n";
-        str += super.toString();
-        return str;
+        StringBuilder str = new StringBuilder(160);
+        InvestmentFormatter.appendTo(str, this);
+        return str.toString();
     }
 }
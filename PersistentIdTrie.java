@@ -0,0 +1,351 @@
+package ePortfolio;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable map from investment identifiers to values, stored as a trie of
+ * 32 way nodes. Changing one entry copies only the nodes on its path, so a
+ * new version shares almost all of its structure with the previous one.
+ * Every node counts its entries, which allows finding the n-th entry in
+ * identifier order without scanning.
+ *
+ * @author Me
+ * @param <T> Type of the values
+ */
+final class PersistentIdTrie<T> implements Iterable<T> {
+
+    /**
+     * Bits of the identifier used at every level.
+     */
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * Node of the trie. Leaves hold values, the other nodes hold nodes.
+     */
+    private static final class Node {
+
+        /**
+         * Children, null where there is none.
+         */
+        final Object[] slots;
+
+        /**
+         * Number of values under this node.
+         */
+        final int count;
+
+        /**
+         * Initialize a node.
+         *
+         * @param slots Children
+         * @param count Number of values under the node
+         */
+        Node(Object[] slots, int count) {
+            this.slots = slots;
+            this.count = count;
+        }
+    }
+
+    /**
+     * The trie without any entry.
+     */
+    private static final PersistentIdTrie<?> EMPTY = new PersistentIdTrie<>(null, 0);
+
+    /**
+     * Root node, null when empty.
+     */
+    private final Node root;
+
+    /**
+     * Shift of the identifier at the root level, 0 when the root is a leaf.
+     */
+    private final int shift;
+
+    /**
+     * Initialize a trie.
+     *
+     * @param root Root node
+     * @param shift Shift at the root level
+     */
+    private PersistentIdTrie(Node root, int shift) {
+        this.root = root;
+        this.shift = shift;
+    }
+
+    /**
+     * Return the trie without any entry.
+     *
+     * @param <T> Type of the values
+     * @return Empty trie
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PersistentIdTrie<T> empty() {
+        return (PersistentIdTrie<T>) EMPTY;
+    }
+
+    /**
+     * Build a trie at once from values indexed by identifier.
+     *
+     * @param <T> Type of the values
+     * @param values Values by identifier, null where there is none
+     * @param length Number of identifiers to use
+     * @return Trie of the values
+     */
+    static <T> PersistentIdTrie<T> of(T[] values, int length) {
+        Object[] level = new Object[(length + MASK) >>> BITS];
+        for (int i = 0; i < level.length; i++) {
+            Object[] slots = new Object[WIDTH];
+            int count = 0;
+            for (int j = 0; j < WIDTH && (i << BITS) + j < length; j++) {
+                slots[j] = values[(i << BITS) + j];
+                if (slots[j] != null) {
+                    count++;
+                }
+            }
+            level[i] = count == 0 ? null : new Node(slots, count);
+        }
+
+        int shift = 0;
+        while (level.length > 1) {
+            Object[] parents = new Object[(level.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                Object[] slots = new Object[WIDTH];
+                int count = 0;
+                for (int j = 0; j < WIDTH && (i << BITS) + j < level.length; j++) {
+                    slots[j] = level[(i << BITS) + j];
+                    if (slots[j] != null) {
+                        count += ((Node) slots[j]).count;
+                    }
+                }
+                parents[i] = count == 0 ? null : new Node(slots, count);
+            }
+            level = parents;
+            shift += BITS;
+        }
+
+        if (level.length == 0 || level[0] == null) {
+            return empty();
+        }
+        return new PersistentIdTrie<>((Node) level[0], shift);
+    }
+
+    /**
+     * Return the number of entries.
+     *
+     * @return Size
+     */
+    int size() {
+        return root == null ? 0 : root.count;
+    }
+
+    /**
+     * Return the value of an identifier.
+     *
+     * @param id Identifier
+     * @return Value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        if (root == null || id < 0 || id >= capacity(shift)) {
+            return null;
+        }
+
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.slots[(id >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (T) node.slots[id & MASK];
+    }
+
+    /**
+     * Return the value at the given position in identifier order.
+     *
+     * @param index Position, from 0 to size() - 1
+     * @return Value
+     * @throws IndexOutOfBoundsException If the position is out of range
+     */
+    @SuppressWarnings("unchecked")
+    T nth(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            for (Object slot : node.slots) {
+                if (slot != null) {
+                    Node child = (Node) slot;
+                    if (index < child.count) {
+                        node = child;
+                        break;
+                    }
+                    index -= child.count;
+                }
+            }
+        }
+
+        for (Object slot : node.slots) {
+            if (slot != null && index-- == 0) {
+                return (T) slot;
+            }
+        }
+        throw new IllegalStateException("Corrupt trie");
+    }
+
+    /**
+     * Return a trie with the value of an identifier replaced.
+     *
+     * @param id Identifier, not negative
+     * @param value New value, or null to remove the entry
+     * @return New trie sharing the untouched nodes with this one
+     */
+    PersistentIdTrie<T> with(int id, T value) {
+        Node node = root;
+        int level = shift;
+        if (node == null) {
+            if (value == null) {
+                return this;
+            }
+            node = new Node(new Object[WIDTH], 0);
+            level = 0;
+        }
+
+        while (id >= capacity(level)) {
+            if (value == null) {
+                return this;
+            }
+            Object[] slots = new Object[WIDTH];
+            slots[0] = node;
+            node = new Node(slots, node.count);
+            level += BITS;
+        }
+
+        Node changed = with(node, level, id, value);
+        return changed.count == 0 ? empty() : new PersistentIdTrie<>(changed, level);
+    }
+
+    /**
+     * Copy the path to an identifier with its value replaced.
+     *
+     * @param node Node to copy
+     * @param level Shift at the node's level
+     * @param id Identifier
+     * @param value New value, or null
+     * @return Copied node
+     */
+    private static Node with(Node node, int level, int id, Object value) {
+        int index = (id >>> level) & MASK;
+        Object[] slots = node.slots.clone();
+        int delta;
+
+        if (level == 0) {
+            delta = (value != null ? 1 : 0) - (slots[index] != null ? 1 : 0);
+            slots[index] = value;
+        } else {
+            Node child = (Node) slots[index];
+            if (child == null) {
+                if (value == null) {
+                    return node;
+                }
+                child = new Node(new Object[WIDTH], 0);
+            }
+            Node changed = with(child, level - BITS, id, value);
+            delta = changed.count - child.count;
+            slots[index] = changed.count == 0 ? null : changed;
+        }
+
+        return new Node(slots, node.count + delta);
+    }
+
+    /**
+     * Return the number of identifiers a trie of the given root level can
+     * hold.
+     *
+     * @param level Shift at the root level
+     * @return Capacity
+     */
+    private static long capacity(int level) {
+        return 1L << (level + BITS);
+    }
+
+    /**
+     * Iterate the values in identifier order.
+     *
+     * @return Iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            /**
+             * Nodes being visited, with the next slot of each.
+             */
+            private final Deque<Node> nodes = new ArrayDeque<>();
+            private final Deque<Integer> positions = new ArrayDeque<>();
+
+            /**
+             * Next value, null once exhausted.
+             */
+            private Object next;
+
+            {
+                if (root != null) {
+                    nodes.push(root);
+                    positions.push(0);
+                }
+                advance();
+            }
+
+            /**
+             * Find the next value.
+             */
+            private void advance() {
+                next = null;
+                while (next == null && !nodes.isEmpty()) {
+                    Node node = nodes.peek();
+                    int position = positions.pop();
+                    if (position == WIDTH) {
+                        nodes.pop();
+                        continue;
+                    }
+                    positions.push(position + 1);
+
+                    Object slot = node.slots[position];
+                    if (slot == null) {
+                        continue;
+                    }
+                    if (nodes.size() - 1 < shift / BITS) {
+                        nodes.push((Node) slot);
+                        positions.push(0);
+                    } else {
+                        next = slot;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                T value = (T) next;
+                advance();
+                return value;
+            }
+        };
+    }
+}
@@ -1,17 +1,49 @@
 package ePortfolio;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.OptionalDouble;
 import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
 
 /**
  * An investor's portfolio for managing their stocks and mutual funds
@@ -26,9 +58,30 @@ public class Portfolio {
     private static Scanner in = new Scanner(System.in);
 
     /**
-     * List to store the investments bought by an investor.
+     * Size from which files are memory mapped and parsed in parallel.
      */
-    private ArrayList<Investment> investments;
+    private static final long PARALLEL_LOAD_THRESHOLD = 16L << 20;
+
+    /**
+     * Fewest journal records that trigger a compaction. Larger portfolios
+     * are compacted once the journal holds more records than investments.
+     */
+    private static final int MIN_COMPACTION_RECORDS = 10000;
+
+    /**
+     * Writes compacted snapshots in the background.
+     */
+    private static final ExecutorService COMPACTION_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "portfolio-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Number of investments held. The investments themselves live in the
+     * position store, identified by their slot.
+     */
+    private int count;
 
     /**
      * File name to store investments list
@@ -36,27 +89,415 @@ public class Portfolio {
     private String fileName;
 
     /**
-     * Map, storing investment indices of name keywords
+     * Whether saving keeps the previous file as a backup
+     */
+    private boolean keepBackup;
+
+    /**
+     * Most skipped records kept to show the user
+     */
+    private static final int MAX_SKIPPED_RECORDS = 100;
+
+    /**
+     * Descriptions of the invalid records skipped while loading, and how
+     * many were skipped in all
+     */
+    private final List<String> skippedRecords = new ArrayList<>();
+    private int skippedRecordCount;
+
+    /**
+     * Error met reading the existing file, which is then loaded empty or in
+     * part, or null if it was read through
+     */
+    private volatile String loadError;
+
+    /**
+     * Whether the loaded file is still to be kept as a backup, set when
+     * records were skipped or the file could not be read so the first save
+     * does not lose them for good
+     */
+    private volatile boolean keepOriginal;
+
+    /**
+     * Whether the backup holds the file as loaded, which later saves leave
+     * alone
+     */
+    private volatile boolean originalKept;
+
+    /**
+     * Type, symbol, name, quantity, price and book value of the investments,
+     * one column each
+     */
+    private ColumnarPositionStore store;
+
+    /**
+     * Running sums of quantity times price and of book values, indexed by
+     * the type codes of the position store
+     */
+    private final double[] marketValues = new double[3];
+    private final double[] bookValues = new double[3];
+
+    /**
+     * Map, storing investment identifiers of name keywords
+     */
+    Map<String, PostingList> indexMap;
+
+    /**
+     * Number of keywords in the index and of identifiers in their posting
+     * lists, kept up to date as investments are added and removed
+     */
+    private volatile int indexKeyCount;
+    private volatile long indexPostingCount;
+
+    /**
+     * Index, storing slots of stocks and mutual funds by their symbol
+     */
+    private SymbolIndex symbolIndex;
+
+    /**
+     * Map, storing investment identifiers by price in ascending order
+     */
+    private TreeMap<Double, PostingList> priceIndex;
+
+    /**
+     * Journal of the changes made since the file was saved, null while the
+     * portfolio is being loaded.
+     */
+    private PortfolioJournal journal;
+
+    /**
+     * Compaction of the journal running in the background, if any.
+     */
+    private Future<?> compaction;
+
+    /**
+     * Latest published snapshot, null while the portfolio is being loaded.
+     */
+    private volatile PortfolioSnapshot snapshot;
+
+    /**
+     * Version of the latest published snapshot.
+     */
+    private long version;
+
+    /**
+     * Whether changes of single investments leave the snapshot alone, while
+     * a sale that removes the investment publishes once at the end. Only set
+     * and read under the write lock.
+     */
+    private boolean publicationHeld;
+
+    /**
+     * Guards the investments and the indices. Lookups, searches and changes
+     * of a single investment share the read lock, adding, removing, bulk
+     * updates and saving take the write lock.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Guards the price index, the totals and the journal, which investments
+     * changing under the read lock update together.
      */
-    Map<String, List<Integer>> indexMap;
+    private final Object valuesLock = new Object();
+
+    /**
+     * Keeps the indices and the journal up to date when an investment
+     * changes.
+     */
+    private final InvestmentListener listener = new InvestmentListener() {
+
+        @Override
+        public void beginChange(Investment investment) {
+            lock.readLock().lock();
+        }
+
+        @Override
+        public void endChange(Investment investment) {
+            lock.readLock().unlock();
+        }
+
+        @Override
+        public void investmentChanged(Investment investment, int oldQuantity, double oldPrice, double oldBookValue) {
+            synchronized (valuesLock) {
+                int type = typeOf(investment);
+                marketValues[type] += investment.getQuantity() * investment.getPrice() - oldQuantity * oldPrice;
+                bookValues[type] += investment.getBookValue() - oldBookValue;
+
+                if (investment.getPrice() != oldPrice) {
+                    removeFromPriceIndex(oldPrice, investment.getSlot());
+                    priceIndex.computeIfAbsent(investment.getPrice(), key -> new PostingList()).add(investment.getSlot());
+                }
+
+                if (snapshot != null && !publicationHeld) {
+                    publish(snapshot.getHoldings().with(investment.getSlot(), new Holding(investment)));
+                }
+
+                if (journal != null) {
+                    journal.recordUpdate(investment);
+                    compactIfNeeded();
+                }
+            }
+        }
+    };
 
     /**
      * Initialize investor's portfolio.
      */
     public Portfolio(String filename) {
-        investments = new ArrayList<>();
+        this(filename, new ArrayPositionStore());
+    }
+
+    /**
+     * Initialize investor's portfolio keeping the quantities, prices and book
+     * values in the given store.
+     *
+     * @param filename File to store investments list
+     * @param store Empty store for the investments' numbers
+     */
+    Portfolio(String filename, ColumnarPositionStore store) {
         this.fileName = filename;
         this.indexMap = new HashMap<>();
+        this.symbolIndex = new SymbolIndex(store);
+        this.priceIndex = new TreeMap<>();
+        this.store = store;
         tryLoad();
+        replayJournal();
+        computeTotals();
+        publishAll();
     }
 
     /**
-     * Return the list of investments.
+     * Return the list of investments, as views created for the list.
      *
      * @return List of investments
      */
     public ArrayList<Investment> getInvestments() {
-        return new ArrayList<>(investments);
+        lock.readLock().lock();
+        try {
+            ArrayList<Investment> list = new ArrayList<>(count);
+            for (Investment investment : investments()) {
+                list.add(investment);
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the investments held, creating a view of each one as it is
+     * iterated. Called under a lock.
+     *
+     * @return Investments in slot order
+     */
+    private Collection<Investment> investments() {
+        return new AbstractCollection<Investment>() {
+            @Override
+            public Iterator<Investment> iterator() {
+                return new Iterator<Investment>() {
+
+                    /**
+                     * Next slot to look at.
+                     */
+                    private int slot = nextLive(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < store.size();
+                    }
+
+                    @Override
+                    public Investment next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Investment investment = view(slot);
+                        slot = nextLive(slot + 1);
+                        return investment;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Return the first slot holding an investment.
+     *
+     * @param from Slot to start from
+     * @return Slot, or the size of the store if there is none
+     */
+    private int nextLive(int from) {
+        int slot = from;
+        while (slot < store.size() && !store.isLive(slot)) {
+            slot++;
+        }
+        return slot;
+    }
+
+    /**
+     * Create a view of the investment in a slot.
+     *
+     * @param slot Slot holding an investment
+     * @return Stock or mutual fund
+     */
+    private Investment view(int slot) {
+        if (store.getType(slot) == ColumnarPositionStore.STOCK) {
+            return new Stock(store, slot, listener);
+        }
+        return new MutualFund(store, slot, listener);
+    }
+
+    /**
+     * Get the total gain or loss of the portfolio depending on current prices.
+     * The totals are kept up to date as the investments change, so this takes
+     * constant time.
+     *
+     * @return Total gain or loss amount
+     */
+    public double computeUnrealizedGainOrLoss() {
+        return getTotals().getUnrealizedGainOrLoss();
+    }
+
+    /**
+     * Return the market value and book value of the whole portfolio.
+     *
+     * @return Totals of all investments
+     */
+    public PortfolioTotals getTotals() {
+        lock.readLock().lock();
+        try {
+            synchronized (valuesLock) {
+                return new PortfolioTotals(
+                        marketValues[ColumnarPositionStore.STOCK] + marketValues[ColumnarPositionStore.MUTUAL_FUND],
+                        bookValues[ColumnarPositionStore.STOCK] + bookValues[ColumnarPositionStore.MUTUAL_FUND]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the market value and book value of the stocks.
+     *
+     * @return Totals of the stocks
+     */
+    public PortfolioTotals getStockTotals() {
+        lock.readLock().lock();
+        try {
+            synchronized (valuesLock) {
+                return new PortfolioTotals(marketValues[ColumnarPositionStore.STOCK], bookValues[ColumnarPositionStore.STOCK]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the market value and book value of the mutual funds.
+     *
+     * @return Totals of the mutual funds
+     */
+    public PortfolioTotals getMutualFundTotals() {
+        lock.readLock().lock();
+        try {
+            synchronized (valuesLock) {
+                return new PortfolioTotals(marketValues[ColumnarPositionStore.MUTUAL_FUND], bookValues[ColumnarPositionStore.MUTUAL_FUND]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recompute the running totals with a full scan of the position store,
+     * dropping any rounding drift accumulated by the incremental updates.
+     */
+    void recomputeTotals() {
+        lock.writeLock().lock();
+        try {
+            computeTotals();
+            if (snapshot != null) {
+                publish(snapshot.getHoldings());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compute the running totals with a full scan of the position store.
+     * Called under the write lock.
+     */
+    private void computeTotals() {
+        Arrays.fill(marketValues, 0);
+        Arrays.fill(bookValues, 0);
+        store.computeTotals(marketValues, bookValues);
+    }
+
+    /**
+     * Return the latest snapshot of the portfolio. Taking a snapshot takes
+     * constant time and needs no lock, and the snapshot never changes.
+     *
+     * @return Snapshot of the investments and totals
+     */
+    public PortfolioSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Return the investment a holding of a snapshot was taken from.
+     *
+     * @param holding Holding of a snapshot of this portfolio
+     * @return Investment, or null if it was removed since
+     */
+    public Investment getInvestment(Holding holding) {
+        lock.readLock().lock();
+        try {
+            // A slot given to another investment since has another generation
+            if (holding.id >= store.size() || !store.isLive(holding.id, holding.generation)) {
+                return null;
+            }
+            return view(holding.id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Publish a new snapshot with the given holdings and the current totals.
+     * Called under the write lock or the values lock.
+     *
+     * @param holdings Holdings by investment identifier
+     */
+    private void publish(PersistentIdTrie<Holding> holdings) {
+        snapshot = new PortfolioSnapshot(++version, holdings, marketValues, bookValues);
+    }
+
+    /**
+     * Publish a snapshot built from every investment at once. Called under
+     * the write lock.
+     */
+    private void publishAll() {
+        Holding[] holdings = new Holding[store.size()];
+        for (Investment investment : investments()) {
+            holdings[investment.getSlot()] = new Holding(investment);
+        }
+        publish(PersistentIdTrie.of(holdings, holdings.length));
+    }
+
+    /**
+     * Return the type code of an investment in the position store.
+     *
+     * @param investment Investment
+     * @return Type code
+     */
+    private static byte typeOf(Investment investment) {
+        return investment instanceof Stock ? ColumnarPositionStore.STOCK : ColumnarPositionStore.MUTUAL_FUND;
     }
 
     /**
@@ -65,15 +506,41 @@ public class Portfolio {
      * @param investment to add
      */
     public void addToList(Investment investment) {
-        int index = investments.size();
-        String[] tokens = investment.getName().split("\\s+");
-        for (String token : tokens) {
-            indexMap.merge(token.toLowerCase(), new ArrayList<>(Collections.singleton(index)), (a, b) -> {
-                a.addAll(b);
-                return a;
-            });
+        lock.writeLock().lock();
+        try {
+            if (investment.listener != null) {
+                throw new IllegalStateException("Investment already belongs to a portfolio.");
+            }
+
+            // A reused slot lands inside the posting lists, which stay sorted
+            int id = store.allocate(typeOf(investment), investment.getSymbol(), investment.getName());
+            String[] tokens = investment.getName().split("\\s+");
+            for (String token : tokens) {
+                if (indexMap.computeIfAbsent(token.toLowerCase(), key -> new PostingList()).add(id)) {
+                    indexPostingCount++;
+                }
+            }
+            indexKeyCount = indexMap.size();
+            priceIndex.computeIfAbsent(investment.getPrice(), key -> new PostingList()).add(id);
+            investment.attach(store, id);
+            marketValues[typeOf(investment)] += investment.getQuantity() * investment.getPrice();
+            bookValues[typeOf(investment)] += investment.getBookValue();
+            investment.listener = listener;
+            count++;
+            if (snapshot != null) {
+                publish(snapshot.getHoldings().with(id, new Holding(investment)));
+            }
+
+            // Lookups return the lowest slot of a symbol, same as the former linear scan
+            symbolIndex.add(id);
+
+            if (journal != null) {
+                journal.recordUpdate(investment);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
-        investments.add(investment);
     }
 
     /**
@@ -82,28 +549,352 @@ public class Portfolio {
      * @param investment to add
      */
     public void removeFromList(Investment investment) {
-        int index = investments.indexOf(investment);
-        if (index < 0) {
-            throw new IllegalStateException();
-        }
-
-        Map<String, List<Integer>> updatedIndexMap = new HashMap<>();
-        for (String key : indexMap.keySet()) {
-            List<Integer> curr = indexMap.get(key);
-            List<Integer> updated = new ArrayList<>();
-            for (int i : curr) {
-                if (i < index) {
-                    updated.add(i);
-                } else if (i > index) {
-                    updated.add(i - 1);
+        long start = PortfolioMetrics.start();
+        lock.writeLock().lock();
+        try {
+            int id = investment.getSlot();
+            if (investment.listener != listener || !store.isLive(id, investment.getGeneration())) {
+                throw new IllegalStateException("Investment was removed from the portfolio.");
+            }
+
+            // Only the posting lists of the investment's own keywords are touched
+            String[] tokens = investment.getName().split("\\s+");
+            for (String token : tokens) {
+                String key = token.toLowerCase();
+                PostingList postings = indexMap.get(key);
+                if (postings != null && postings.remove(id)) {
+                    indexPostingCount--;
+                    if (postings.isEmpty()) {
+                        indexMap.remove(key);
+                    }
                 }
             }
-            if (updated.size() > 0) {
-                updatedIndexMap.put(key, updated);
+            indexKeyCount = indexMap.size();
+            removeFromPriceIndex(investment.getPrice(), id);
+            investment.listener = null;
+            marketValues[typeOf(investment)] -= investment.getQuantity() * investment.getPrice();
+            bookValues[typeOf(investment)] -= investment.getBookValue();
+            investment.detach();
+
+            // The index compares the symbols in the store, so it goes first
+            symbolIndex.remove(id);
+            store.free(id);
+            count--;
+            if (snapshot != null) {
+                publish(snapshot.getHoldings().with(id, null));
+            }
+
+            if (journal != null) {
+                journal.recordRemove(investment);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+            PortfolioMetrics.REMOVE.stop(start);
+        }
+    }
+
+    /**
+     * Buy a stock: raise the quantity of the stock held with the symbol, or
+     * add the stock the factory creates when there is none. Both happen
+     * under the write lock, so two buyers of a new symbol cannot both add it.
+     *
+     * @param symbol Symbol of the stock
+     * @param quantity Quantity to add to the held stock
+     * @param factory Creates the stock to add when none is held
+     * @return Stock already held, or null if the new stock was added
+     * @throws IllegalArgumentException If the quantity is invalid or the
+     * factory rejects its values
+     */
+    public Stock buyStock(String symbol, int quantity, Supplier<Stock> factory) {
+        return (Stock) buy(ColumnarPositionStore.STOCK, symbol, quantity, factory);
+    }
+
+    /**
+     * Buy a mutual fund: raise the quantity of the fund held with the
+     * symbol, or add the fund the factory creates when there is none.
+     *
+     * @param symbol Symbol of the mutual fund
+     * @param quantity Quantity to add to the held fund
+     * @param factory Creates the fund to add when none is held
+     * @return Mutual fund already held, or null if the new fund was added
+     * @throws IllegalArgumentException If the quantity is invalid or the
+     * factory rejects its values
+     */
+    public MutualFund buyMutualFund(String symbol, int quantity, Supplier<MutualFund> factory) {
+        return (MutualFund) buy(ColumnarPositionStore.MUTUAL_FUND, symbol, quantity, factory);
+    }
+
+    /**
+     * Raise the quantity of the held investment or add a new one.
+     *
+     * @param type Type code of the investment
+     * @param symbol Symbol of the investment
+     * @param quantity Quantity to add to the held investment
+     * @param factory Creates the investment to add when none is held
+     * @return Investment already held, or null if the new one was added
+     */
+    private Investment buy(byte type, String symbol, int quantity, Supplier<? extends Investment> factory) {
+        lock.writeLock().lock();
+        try {
+            int slot = symbolIndex.find(symbol, type);
+            if (slot < 0) {
+                addToList(factory.get());
+                return null;
+            }
+            Investment held = view(slot);
+            held.add(quantity);
+            return held;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sell shares of an investment, the stock if both a stock and a mutual
+     * fund have the symbol, and remove it once none are left. Both happen
+     * under the write lock, so shares bought meanwhile are never removed
+     * with it.
+     *
+     * @param symbol Symbol of the investment
+     * @param quantity Number of shares to sell
+     * @return Amount converted to cash, or empty if no investment has the
+     * symbol
+     * @throws IllegalArgumentException If the quantity is invalid or more
+     * than held
+     */
+    public OptionalDouble sell(String symbol, int quantity) {
+        lock.writeLock().lock();
+        try {
+            int slot = symbolIndex.find(symbol, ColumnarPositionStore.STOCK);
+            if (slot < 0) {
+                slot = symbolIndex.find(symbol, ColumnarPositionStore.MUTUAL_FUND);
+            }
+            if (slot < 0) {
+                return OptionalDouble.empty();
+            }
+
+            // Selling every share publishes once, without the investment,
+            // never a snapshot holding no shares of it
+            Investment investment = view(slot);
+            publicationHeld = quantity == investment.getQuantity();
+            double amount = investment.reduce(quantity);
+            if (investment.getQuantity() == 0) {
+                removeFromList(investment);
             }
+            return OptionalDouble.of(amount);
+        } finally {
+            publicationHeld = false;
+            lock.writeLock().unlock();
         }
-        indexMap = updatedIndexMap;
-        investments.remove(index);
+    }
+
+    /**
+     * Set the prices of many investments at once, for example to reprice
+     * the whole portfolio at the end of the day. The stock and the mutual
+     * fund of each symbol are both repriced. Entries with an unknown symbol
+     * or an invalid price are reported and skipped, the others still apply.
+     *
+     * The price index and the totals are brought up to date once for the
+     * whole batch instead of once per investment. Large batches rebuild them
+     * with a full scan, small ones move the investments whose price changed.
+     *
+     * @param prices New prices by symbol
+     * @return Number of repriced investments and the skipped entries
+     */
+    public PriceUpdateResult updatePrices(Map<String, Double> prices) {
+        lock.writeLock().lock();
+        try {
+            PriceUpdateResult result = new PriceUpdateResult();
+            List<Investment> changed = new ArrayList<>(prices.size());
+
+            // Large batches rebuild the price index and the totals, small ones
+            // move each entry and add its change to the totals
+            boolean rebuild = prices.size() > count / 8;
+            List<Investment> moved = new ArrayList<>();
+            List<Double> oldPrices = new ArrayList<>();
+
+            for (Map.Entry<String, Double> entry : prices.entrySet()) {
+                String symbol = entry.getKey();
+                Double price = entry.getValue();
+                if (price == null || !(price > 0) || price.isInfinite()) {
+                    result.addInvalidPrice(symbol);
+                    continue;
+                }
+
+                int stock = symbolIndex.find(symbol, ColumnarPositionStore.STOCK);
+                int fund = symbolIndex.find(symbol, ColumnarPositionStore.MUTUAL_FUND);
+                if (stock < 0 && fund < 0) {
+                    result.addUnknownSymbol(symbol);
+                    continue;
+                }
+
+                for (int slot : new int[]{stock, fund}) {
+                    if (slot < 0) {
+                        continue;
+                    }
+                    Investment investment = view(slot);
+
+                    // Written to the store directly so the listener stays quiet
+                    double oldPrice = store.getPrice(investment.getSlot());
+                    store.setPrice(investment.getSlot(), price);
+                    if (!rebuild && oldPrice != price) {
+                        moved.add(investment);
+                        oldPrices.add(oldPrice);
+                    }
+                    changed.add(investment);
+                    result.addUpdated();
+                }
+            }
+
+            if (rebuild) {
+                rebuildPriceIndex();
+                computeTotals();
+            } else {
+                for (int i = 0; i < moved.size(); i++) {
+                    Investment investment = moved.get(i);
+                    double oldPrice = oldPrices.get(i);
+                    removeFromPriceIndex(oldPrice, investment.getSlot());
+                    priceIndex.computeIfAbsent(investment.getPrice(), key -> new PostingList()).add(investment.getSlot());
+                    marketValues[typeOf(investment)] += investment.getQuantity() * investment.getPrice() - investment.getQuantity() * oldPrice;
+                }
+            }
+            if (rebuild) {
+                publishAll();
+            } else {
+                PersistentIdTrie<Holding> holdings = snapshot.getHoldings();
+                for (Investment investment : changed) {
+                    holdings = holdings.with(investment.getSlot(), new Holding(investment));
+                }
+                publish(holdings);
+            }
+
+            if (journal != null && !changed.isEmpty()) {
+                journal.recordUpdates(changed);
+                compactIfNeeded();
+            }
+
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Build the price index again from every investment. The prices are
+     * sorted once as primitives and the investments, visited in slot order,
+     * are appended to the posting list of their price.
+     */
+    private void rebuildPriceIndex() {
+        int count = this.count;
+        int[] ids = new int[count];
+        double[] prices = new double[count];
+        int position = 0;
+        for (int slot = nextLive(0); slot < store.size(); slot = nextLive(slot + 1)) {
+            ids[position] = slot;
+            prices[position] = store.getPrice(slot);
+            position++;
+        }
+
+        double[] distinct = prices.clone();
+        Arrays.sort(distinct);
+        int distinctCount = 0;
+        for (double price : distinct) {
+            if (distinctCount == 0 || distinct[distinctCount - 1] != price) {
+                distinct[distinctCount++] = price;
+            }
+        }
+
+        PostingList[] postings = new PostingList[distinctCount];
+        for (int i = 0; i < count; i++) {
+            int bucket = Arrays.binarySearch(distinct, 0, distinctCount, prices[i]);
+            if (postings[bucket] == null) {
+                postings[bucket] = new PostingList();
+            }
+            postings[bucket].add(ids[i]);
+        }
+
+        TreeMap<Double, PostingList> rebuilt = new TreeMap<>();
+        for (int bucket = 0; bucket < distinctCount; bucket++) {
+            rebuilt.put(distinct[bucket], postings[bucket]);
+        }
+        priceIndex = rebuilt;
+    }
+
+    /**
+     * Removes an investment identifier from the price index
+     *
+     * @param price Price the investment is indexed by
+     * @param id Identifier of the investment
+     */
+    private void removeFromPriceIndex(double price, int id) {
+        PostingList postings = priceIndex.get(price);
+        if (postings != null) {
+            postings.remove(id);
+            if (postings.isEmpty()) {
+                priceIndex.remove(price);
+            }
+        }
+    }
+
+    /**
+     * Count the investments priced within the given range, stopping once
+     * the count reaches the limit, so estimating a wide range is cheap
+     *
+     * @param lowPrice Minimum price
+     * @param highPrice Maximum price
+     * @param limit Count after which to stop
+     * @return number of matching investments, or limit if there are more
+     */
+    private int countInvestmentsByPrice(double lowPrice, double highPrice, int limit) {
+        if (lowPrice > highPrice) {
+            return 0;
+        }
+
+        synchronized (valuesLock) {
+            int count = 0;
+            for (PostingList postings : priceIndex.subMap(lowPrice, true, highPrice, true).values()) {
+                count += postings.size();
+                if (count >= limit) {
+                    return limit;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Found identifiers of investments priced within the given range
+     *
+     * @param lowPrice Minimum price
+     * @param highPrice Maximum price
+     * @return sorted identifiers of matching investments
+     */
+    private int[] getInvestmentIdsByPrice(double lowPrice, double highPrice) {
+        if (lowPrice > highPrice) {
+            return new int[0];
+        }
+
+        int[] ids;
+        synchronized (valuesLock) {
+            Collection<PostingList> ranges = priceIndex.subMap(lowPrice, true, highPrice, true).values();
+            int count = 0;
+            for (PostingList postings : ranges) {
+                count += postings.size();
+            }
+
+            ids = new int[count];
+            int position = 0;
+            for (PostingList postings : ranges) {
+                for (int i = 0; i < postings.size(); i++) {
+                    ids[position++] = postings.get(i);
+                }
+            }
+        }
+
+        // Keep the portfolio order rather than the price order
+        Arrays.sort(ids);
+        return ids;
     }
 
     /**
@@ -113,13 +904,13 @@ public class Portfolio {
      * @return Stock
      */
     public Stock findStock(String symbol) {
-        for (Investment investment : investments) {
-            if (investment instanceof Stock && investment.getSymbol().equalsIgnoreCase(symbol)) {
-                return (Stock) investment;
-            }
+        lock.readLock().lock();
+        try {
+            int slot = symbolIndex.find(symbol, ColumnarPositionStore.STOCK);
+            return slot < 0 ? null : (Stock) view(slot);
+        } finally {
+            lock.readLock().unlock();
         }
-
-        return null;
     }
 
     /**
@@ -129,40 +920,76 @@ public class Portfolio {
      * @return Mutual fund
      */
     public MutualFund findMutualFund(String symbol) {
-        for (Investment investment : investments) {
-            if (investment instanceof MutualFund && investment.getSymbol().equalsIgnoreCase(symbol)) {
-                return (MutualFund) investment;
-            }
+        lock.readLock().lock();
+        try {
+            int slot = symbolIndex.find(symbol, ColumnarPositionStore.MUTUAL_FUND);
+            return slot < 0 ? null : (MutualFund) view(slot);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        return null;
+    /**
+     * Return the number of slots of the position store, held or free. Freed
+     * slots are handed out again, so this never exceeds the most investments
+     * held at once.
+     *
+     * @return Number of slots
+     */
+    int getSlotCount() {
+        lock.readLock().lock();
+        try {
+            return store.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
-     * Found appropriate collection of investments by key filter
+     * Return the number of keywords of the index and of identifiers in their
+     * posting lists. Both are counted as the index changes, so this takes
+     * constant time and no lock.
      *
-     * @param keyFilter Keywords to find
-     * @return list of matching investments
+     * @param keysAndPostings Receives the number of keywords, then the number
+     * of identifiers
      */
-    private List<Investment> getInvestmentsByKeyFilter(String keyFilter) {
-        String[] keys = keyFilter.split("\\s+");
-        Collection<Integer> foundInvestmentIndices = null;
-        for (String key : keys) {
-            if (foundInvestmentIndices == null) {
-                foundInvestmentIndices = new ArrayList<>(indexMap.get(key.toLowerCase()));
-            } else {
-                foundInvestmentIndices = foundInvestmentIndices.stream()
-                        .distinct()
-                        .filter(indexMap.get(key.toLowerCase())::contains)
-                        .collect(Collectors.toList());
+    void getIndexStatistics(long[] keysAndPostings) {
+        keysAndPostings[0] = indexKeyCount;
+        keysAndPostings[1] = indexPostingCount;
+    }
+
+    /**
+     * Found the posting lists of the given keywords
+     *
+     * @param keywords Lower case keywords to find
+     * @return posting list of every keyword, or null if a keyword is in no
+     * name
+     */
+    private PostingList[] getPostingLists(String[] keywords) {
+        PostingList[] postings = new PostingList[keywords.length];
+        for (int i = 0; i < keywords.length; i++) {
+            postings[i] = indexMap.get(keywords[i]);
+            if (postings[i] == null) {
+                return null;
             }
         }
+        return postings;
+    }
 
-        List<Investment> result = new ArrayList<>();
-        for (int i : foundInvestmentIndices) {
-            result.add(investments.get(i));
+    /**
+     * Check whether an identifier is in every posting list
+     *
+     * @param postings Posting lists to look in
+     * @param id Identifier of an investment
+     * @return If every list holds the identifier
+     */
+    private static boolean containsAll(PostingList[] postings, int id) {
+        for (PostingList postingList : postings) {
+            if (!postingList.contains(id)) {
+                return false;
+            }
         }
-        return result;
+        return true;
     }
 
     /**
@@ -175,116 +1002,534 @@ public class Portfolio {
      * @return List of matching investment
      */
     public ArrayList<Investment> searchInvestments(String symbolFilter, String keyFilter, double lowPrice, double highPrice) {
-        ArrayList<Investment> foundInvestments = new ArrayList<>();
+        return search(new InvestmentQuery(symbolFilter, keyFilter, lowPrice, highPrice));
+    }
 
-        // Extract by keywords
-        if (!keyFilter.isEmpty()) {
-            foundInvestments.addAll(getInvestmentsByKeyFilter(keyFilter));
-        } else {
-            foundInvestments.addAll(investments);
-        }
+    /**
+     * Find all investments that matches the given query in a single pass.
+     * A symbol gives at most two candidates. Otherwise the size of the
+     * shortest keyword posting list and the number of investments in the
+     * price range are compared, and the search starts from the smaller set,
+     * checking the other criteria on each candidate.
+     *
+     * @param query Search criteria
+     * @return List of matching investment in portfolio order
+     * @throws CancellationException If the thread is interrupted
+     */
+    public ArrayList<Investment> search(InvestmentQuery query) {
+        long start = PortfolioMetrics.start();
+        lock.readLock().lock();
+        try {
+            ArrayList<Investment> foundInvestments = new ArrayList<>();
+            int visited = 0;
+
+            if (query.hasSymbol()) {
+                // At most one stock and one mutual fund share a symbol
+                int stock = symbolIndex.find(query.getSymbol(), ColumnarPositionStore.STOCK);
+                int fund = symbolIndex.find(query.getSymbol(), ColumnarPositionStore.MUTUAL_FUND);
+                int[] slots = fund >= 0 && fund < stock ? new int[]{fund, stock} : new int[]{stock, fund};
+
+                for (int slot : slots) {
+                    if (slot >= 0) {
+                        Investment investment = view(slot);
+                        if (query.matches(investment)) {
+                            foundInvestments.add(investment);
+                        }
+                    }
+                }
+            } else {
+                PostingList[] postings = getPostingLists(query.getKeywords());
+                if (postings == null) {
+                    return foundInvestments;
+                }
+
+                // Start from the index giving the fewest candidates
+                int keywordCandidates = count;
+                for (PostingList postingList : postings) {
+                    keywordCandidates = Math.min(keywordCandidates, postingList.size());
+                }
+
+                int[] ids = null;
+                if (query.hasPriceRange()
+                        && countInvestmentsByPrice(query.getLowPrice(), query.getHighPrice(), keywordCandidates) < keywordCandidates) {
+                    ids = getInvestmentIdsByPrice(query.getLowPrice(), query.getHighPrice());
+                } else if (postings.length > 0) {
+                    ids = PostingList.intersect(postings);
+                }
 
-        // Extract by symbol
-        if (!symbolFilter.isEmpty()) {
-            for (Investment investment : investments) {
-                if (!investment.getSymbol().equalsIgnoreCase(symbolFilter)) {
-                    foundInvestments.remove(investment);
+                if (ids != null) {
+                    for (int id : ids) {
+                        checkCancelled(++visited);
+                        Investment investment = view(id);
+                        if (containsAll(postings, id) && query.matchesIgnoringKeywords(investment)) {
+                            foundInvestments.add(investment);
+                        }
+                    }
+                } else {
+                    for (Investment investment : investments()) {
+                        checkCancelled(++visited);
+                        if (query.matchesIgnoringKeywords(investment)) {
+                            foundInvestments.add(investment);
+                        }
+                    }
                 }
             }
+
+            return foundInvestments;
+        } finally {
+            lock.readLock().unlock();
+            PortfolioMetrics.SEARCH.stop(start);
+        }
+    }
+
+    /**
+     * Stop a search if the thread was interrupted, checking once every few
+     * thousand investments.
+     *
+     * @param visited Number of investments visited so far
+     * @throws CancellationException If the thread is interrupted
+     */
+    private static void checkCancelled(int visited) {
+        if ((visited & PortfolioFileWriter.CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search cancelled.");
         }
+    }
 
-        // Extract by price range
-        for (int i = investments.size() - 1; i >= 0; i--) {
-            Investment investment = investments.get(i);
+    private void tryLoad() {
+        long start = PortfolioMetrics.start();
+        FileChannel opened;
+        try {
+            opened = FileChannel.open(Paths.get(fileName));
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Cannot open file '" + fileName + "'");
+            PortfolioMetrics.LOAD.stop(start);
+            return;
+        }
 
-            if (investment.getPrice() < lowPrice || investment.getPrice() > highPrice) {
-                foundInvestments.remove(i);
+        try (FileChannel channel = opened) {
+            if (PortfolioBinaryFormat.isBinary(fileName)) {
+                PortfolioBinaryFormat.read(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16), channel.size(), this::addToList, this::skipRecord);
+            } else if (channel.size() >= PARALLEL_LOAD_THRESHOLD) {
+                PortfolioFileParser.readMapped(channel, this::addToList, this::skipRecord);
+            } else {
+                PortfolioFileParser.read(Channels.newInputStream(channel), this::addToList, this::skipRecord);
             }
+        } catch (IOException e) {
+            // The file exists but is damaged, it must survive the next save
+            loadError = e.getMessage() == null ? e.toString() : e.getMessage();
+            System.err.println("Cannot read file '" + fileName + "': " + loadError);
+        } finally {
+            PortfolioMetrics.LOAD.stop(start);
         }
-        
-        return foundInvestments;
+        keepOriginal = skippedRecordCount > 0 || loadError != null;
     }
 
-    private void tryLoad() {
-        try (Scanner scanner = new Scanner(new File(fileName))) {
-            while (scanner.hasNextLine()) {
-                boolean isStock = false;
-                String line = scanner.nextLine();
-                String tmp;
-                tmp = line.split("=")[1].trim();
-                if (tmp.substring(1, tmp.length() - 1).equals("stock")) {
-                    isStock = true;
-                }
+    /**
+     * Report an invalid record skipped while loading.
+     *
+     * @param description Description of the record and of the problem
+     */
+    private void skipRecord(String description) {
+        System.err.println(description);
+        if (skippedRecords.size() < MAX_SKIPPED_RECORDS) {
+            skippedRecords.add(description);
+        }
+        skippedRecordCount++;
+    }
 
-                line = scanner.nextLine();
-                tmp = line.split("=")[1].trim();
-                String symbol = tmp.substring(1, tmp.length() - 1);
+    /**
+     * Return the invalid records skipped while loading. Only the first
+     * hundred are described, getSkippedRecordCount() tells how many there
+     * were.
+     *
+     * @return Descriptions of the skipped records
+     */
+    public List<String> getSkippedRecords() {
+        return Collections.unmodifiableList(skippedRecords);
+    }
 
-                line = scanner.nextLine();
-                tmp = line.split("=")[1].trim();
-                String name = tmp.substring(1, tmp.length() - 1);
+    /**
+     * Return the number of invalid records skipped while loading.
+     *
+     * @return Number of skipped records
+     */
+    public int getSkippedRecordCount() {
+        return skippedRecordCount;
+    }
 
-                line = scanner.nextLine();
-                tmp = line.split("=")[1].trim();
-                int quantity = Integer.parseInt(tmp.substring(1, tmp.length() - 1));
+    /**
+     * Return the error met reading the existing portfolio file, for example
+     * a corrupt binary file. The portfolio then holds what was read before
+     * the error, and the file is kept as a backup by the first save.
+     *
+     * @return Description of the error, or null if the file was read through
+     * or did not exist
+     */
+    public String getLoadError() {
+        return loadError;
+    }
 
-                line = scanner.nextLine();
-                tmp = line.split("=")[1].trim();
-                double price = Double.parseDouble(tmp.substring(1, tmp.length() - 1));
+    /**
+     * Set whether saving keeps the previous file as a backup next to it.
+     *
+     * @param keepBackup If a backup should be kept
+     */
+    public void setKeepBackup(boolean keepBackup) {
+        this.keepBackup = keepBackup;
+    }
 
-                line = scanner.nextLine();
-                tmp = line.split("=")[1].trim();
-                double bookValue = Double.parseDouble(tmp.substring(1, tmp.length() - 1));
+    /**
+     * Save the investments and clear the journal. Waits for a compaction
+     * running in the background to finish first. Interrupting the thread
+     * cancels the save and leaves the previous file and the journal as they
+     * were.
+     *
+     * @return If the file was saved
+     */
+    public boolean trySave() {
+        long start = PortfolioMetrics.start();
+        lock.writeLock().lock();
+        try {
+            try {
+                waitForCompaction();
+                writeSnapshot(fileName, investments());
+                journal.reset();
+                return true;
+            } catch (InterruptedIOException | ClosedByInterruptException e) {
+                System.err.println("Cancelled saving file '" + fileName + "'");
+            } catch (IOException | InvalidPathException e) {
+                System.err.println("Cannot save file '" + fileName + "'");
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+            PortfolioMetrics.SAVE.stop(start);
+        }
+    }
 
-                if (isStock) {
-                    addToList(new Stock(symbol, name, quantity, price, bookValue));
-                } else {
-                    addToList(new MutualFund(symbol, name, quantity, price, bookValue));
+    /**
+     * Save a copy of the investments to another file, in the format chosen by
+     * its extension, leaving this portfolio's file and journal untouched.
+     *
+     * @param otherFileName File to save to
+     */
+    public void trySaveAs(String otherFileName) {
+        lock.readLock().lock();
+        try {
+            try {
+                writeSnapshot(otherFileName, investments());
+            } catch (IOException | InvalidPathException e) {
+                System.err.println("Cannot save file '" + otherFileName + "'");
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replay the changes recorded in the journal since the file was saved.
+     */
+    private void replayJournal() {
+        PortfolioJournal loading = new PortfolioJournal(fileName);
+
+        try {
+            loading.replay(new PortfolioJournal.Replay() {
+                @Override
+                public void update(boolean isStock, String symbol, String name, int quantity, double price, double bookValue) {
+                    Investment investment = isStock ? findStock(symbol) : findMutualFund(symbol);
+                    if (investment != null) {
+                        investment.restore(quantity, price, bookValue);
+                    } else if (isStock) {
+                        addToList(new Stock(symbol, name, quantity, price, bookValue));
+                    } else {
+                        addToList(new MutualFund(symbol, name, quantity, price, bookValue));
+                    }
                 }
 
-                if (scanner.hasNextLine()) {
-                    scanner.nextLine();
+                @Override
+                public void remove(boolean isStock, String symbol) {
+                    Investment investment = isStock ? findStock(symbol) : findMutualFund(symbol);
+                    if (investment != null) {
+                        removeFromList(investment);
+                    }
                 }
+            });
+        } catch (IOException e) {
+            System.err.println("Cannot read journal of '" + fileName + "'");
+        }
+
+        journal = loading;
+    }
+
+    /**
+     * Compact the journal in the background once it grows larger than the
+     * portfolio itself.
+     */
+    private void compactIfNeeded() {
+        if (journal.size() <= Math.max(MIN_COMPACTION_RECORDS, count)) {
+            return;
+        }
+
+        if (compaction != null && !compaction.isDone()) {
+            return;
+        }
+
+        // Copy the state now, the snapshot is written while trading goes on.
+        // A sale may compact between selling the last share and removing the
+        // investment, which is left out as its removal is recorded next.
+        List<Investment> copies = new ArrayList<>(count);
+        for (Investment investment : investments()) {
+            if (investment.getQuantity() == 0) {
+                continue;
             }
+            if (investment instanceof Stock) {
+                copies.add(new Stock(investment.getSymbol(), investment.getName(), investment.getQuantity(), investment.getPrice(), investment.getBookValue()));
+            } else {
+                copies.add(new MutualFund(investment.getSymbol(), investment.getName(), investment.getQuantity(), investment.getPrice(), investment.getBookValue()));
+            }
+        }
+
+        try {
+            journal.beginCompaction();
         } catch (IOException e) {
-            System.err.println("Cannot open file '" + fileName + "'");
+            System.err.println("Cannot compact journal of '" + fileName + "'");
+            return;
         }
+
+        PortfolioJournal compacting = journal;
+        compaction = COMPACTION_EXECUTOR.submit(() -> {
+            try {
+                writeSnapshot(fileName, copies);
+                compacting.endCompaction();
+            } catch (IOException | InvalidPathException e) {
+                System.err.println("Cannot save file '" + fileName + "'");
+            }
+        });
     }
 
-    public void trySave() {
-        try (PrintWriter writer = new PrintWriter(fileName)) {
-            for (Investment investment : investments) {
-                if (investment instanceof Stock) {
-                    writer.println("type = \"stock\"");
+    /**
+     * Wait for a compaction running in the background to finish.
+     */
+    private void waitForCompaction() {
+        if (compaction == null) {
+            return;
+        }
+
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Cannot compact journal of '" + fileName + "'");
+        }
+    }
+
+    /**
+     * Write the investments to a file, in the binary format when its name
+     * has the binary extension and as text otherwise. They are written to a
+     * temporary file in the same directory, flushed to disk and then moved
+     * over the original, so a crash during the save leaves the previous file
+     * intact. The first save of this portfolio's file after records were
+     * skipped while loading, or after the file could not be read, keeps the
+     * file as loaded as a backup.
+     *
+     * @param targetFileName File to write
+     * @param snapshot Investments to write
+     * @throws IOException If the file cannot be written
+     */
+    private void writeSnapshot(String targetFileName, Collection<Investment> snapshot) throws IOException {
+        Path temp = null;
+
+        try {
+            Path target = Paths.get(targetFileName).toAbsolutePath();
+            Path directory = target.getParent();
+            temp = createTempFile(directory, target.getFileName().toString());
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if (PortfolioBinaryFormat.isBinary(targetFileName)) {
+                    OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+                    PortfolioBinaryFormat.write(out, snapshot);
                 } else {
-                    writer.println("type = \"mutualfund\"");
+                    Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+                    PortfolioFileWriter.write(writer, snapshot);
+                    writer.flush();
+                }
+                channel.force(true);
+            }
+
+            if (Files.exists(target)) {
+                copyPermissions(target, temp);
+                if (keepOriginal && targetFileName.equals(fileName)) {
+                    // Records were skipped or unreadable while loading, keep them somewhere
+                    backup(target, Paths.get(target + ".bak"));
+                    keepOriginal = false;
+                    originalKept = true;
+                } else if (keepBackup && !(originalKept && targetFileName.equals(fileName))) {
+                    backup(target, Paths.get(target + ".bak"));
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+            syncDirectory(directory);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    System.err.println("Cannot delete file '" + temp + "'");
                 }
-                writer.println("symbol = \"" + investment.getSymbol() + "\"");
-                writer.println("name = \"" + investment.getName() + "\"");
-                writer.println("quantity = \"" + investment.getQuantity() + "\"");
-                writer.println("price = \"" + String.format("%.2f", investment.getPrice()) + "\"");
-                writer.println("bookvalue = \"" + String.format("%.2f", investment.getBookValue()) + "\"");
-                writer.println();
             }
+        }
+    }
+
+    /**
+     * Create an empty temporary file next to the target. Unlike
+     * Files.createTempFile, which makes the file readable by its owner only,
+     * the file gets the default permissions of new files, so a first save
+     * creates the portfolio file as any other program would.
+     *
+     * @param directory Directory of the target
+     * @param prefix Start of the temporary file name
+     * @return Temporary file
+     * @throws IOException If the file cannot be created
+     */
+    private static Path createTempFile(Path directory, String prefix) throws IOException {
+        while (true) {
+            Path temp = directory.resolve(prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // Taken, try another name
+            }
+        }
+    }
+
+    /**
+     * Keep the current file as a backup, linking it when the file system
+     * allows so the contents are not copied.
+     *
+     * @param target File to back up
+     * @param backup Backup file to replace
+     * @throws IOException If the backup cannot be made
+     */
+    private static void backup(Path target, Path backup) throws IOException {
+        Files.deleteIfExists(backup);
+        try {
+            Files.createLink(backup, target);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Give the new file the permissions of the file it replaces, which may
+     * differ from those of new files.
+     *
+     * @param from File to copy the permissions from
+     * @param to File to copy the permissions to
+     */
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (IOException | UnsupportedOperationException e) {
+            // Keep the default permissions of new files
+        }
+    }
+
+    /**
+     * Flush a directory entry change to disk where the platform supports it.
+     *
+     * @param directory Directory to flush
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
         } catch (IOException e) {
-            System.err.println("Cannot open file '" + fileName + "'");
+            // Not supported on every platform, the rename itself is done
         }
     }
 
     /**
-     * Start the portfolio program
+     * Start the portfolio program. The last argument is the portfolio file,
+     * read as binary when it ends with .bin and as text otherwise. It may be
+     * preceded by "-offheap" to keep the investments' numbers outside the
+     * heap, or by "-mapped storeFile" to keep them in a memory mapped scratch
+     * file, overwritten on every start.
+     * With "-convert source target" the source portfolio is saved to the
+     * target file in the format of its extension instead. With
+     * "-metrics metricsFile" the slow operations are timed, published through
+     * JMX and written to the metrics file every ten seconds. With
+     * "-batch commandFile" the commands of the file are run without a window,
+     * their results are printed and the portfolio is saved at the end.
      *
-     * @param args Unused arguments
+     * @param args Options and portfolio file, or conversion arguments
      */
     public static void main(String[] args) {
         Locale.setDefault(Locale.US);
         String filename = "input.txt";
+        ColumnarPositionStore store = null;
+        String feedFileName = null;
+        String metricsFileName = null;
+        String batchFileName = null;
 
-        if (args.length > 0) {
-            filename = args[0];
+        if (args.length == 3 && args[0].equals("-convert")) {
+            new Portfolio(args[1]).trySaveAs(args[2]);
+            return;
         }
 
-        Portfolio portfolio = new Portfolio(filename);
-        new PortfolioFrame(portfolio).setVisible(true);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-offheap")) {
+                store = new DirectPositionStore();
+            } else if (args[i].equals("-mapped") && i + 1 < args.length) {
+                store = new DirectPositionStore(Paths.get(args[++i]));
+            } else if (args[i].equals("-feed") && i + 1 < args.length) {
+                feedFileName = args[++i];
+            } else if (args[i].equals("-metrics") && i + 1 < args.length) {
+                metricsFileName = args[++i];
+            } else if (args[i].equals("-batch") && i + 1 < args.length) {
+                batchFileName = args[++i];
+            } else {
+                filename = args[i];
+            }
+        }
+
+        if (metricsFileName != null) {
+            PortfolioMetrics.enable();
+        }
+
+        Portfolio portfolio = new Portfolio(filename, store == null ? new ArrayPositionStore() : store);
+        if (metricsFileName != null) {
+            PortfolioMetrics.watch(portfolio);
+            PortfolioMetrics.dumpPeriodically(Paths.get(metricsFileName), 10000);
+        }
+
+        if (batchFileName != null) {
+            try (BufferedReader commands = Files.newBufferedReader(Paths.get(batchFileName), StandardCharsets.UTF_8)) {
+                new PortfolioBatch(portfolio, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)).run(commands);
+            } catch (IOException | InvalidPathException e) {
+                System.err.println("Cannot read file '" + batchFileName + "'");
+            }
+            portfolio.trySave();
+            if (metricsFileName != null) {
+                PortfolioMetrics.dump(Paths.get(metricsFileName));
+            }
+            return;
+        }
+        PortfolioFrame frame = new PortfolioFrame(portfolio);
+        frame.setVisible(true);
+        frame.showSkippedRecords();
+
+        if (feedFileName != null) {
+            PriceFeed feed = new PriceFeed(portfolio, Paths.get(feedFileName), 500, SwingUtilities::invokeLater, frame::pricesUpdated);
+            if (metricsFileName != null) {
+                PortfolioMetrics.watch(feed);
+            }
+            feed.start();
+        }
     }
 }
@@ -0,0 +1,291 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Runs a file of commands against a portfolio without a window, for example
+ * the trades of the day. Every line is one command with comma separated
+ * fields, the name coming last so it may hold commas:
+ *
+ * <pre>
+ * buy,stock|fund,symbol,quantity,price,name
+ * sell,symbol,quantity
+ * update,symbol,price
+ * search,symbol,keywords,lowPrice,highPrice
+ * gains
+ * save
+ * </pre>
+ *
+ * Empty lines and lines starting with # are skipped. Consecutive updates
+ * are applied together as one bulk price update. Every command is echoed
+ * with its messages, the same as in the window, followed by the time it
+ * took, or by the time of the bulk update after its last update.
+ *
+ * @author Me
+ */
+final class PortfolioBatch {
+
+    /**
+     * Most price updates applied together.
+     */
+    private static final int MAX_PRICE_BATCH = 10000;
+
+    /**
+     * The portfolio to manage.
+     */
+    private final Portfolio portfolio;
+
+    /**
+     * Buys, sells and searches on the portfolio.
+     */
+    private final PortfolioCommands commands;
+
+    /**
+     * Receives the results.
+     */
+    private final Writer out;
+
+    /**
+     * Prices of the updates waiting to be applied, by symbol.
+     */
+    private final Map<String, Double> pendingPrices = new LinkedHashMap<>();
+
+    /**
+     * Lines and symbols of the updates waiting to be applied, in order.
+     */
+    private final List<String> pendingLines = new ArrayList<>();
+    private final List<String> pendingSymbols = new ArrayList<>();
+
+    /**
+     * Number of commands run and of commands that failed.
+     */
+    private long commandCount;
+    private long errorCount;
+
+    /**
+     * Initialize a batch.
+     *
+     * @param portfolio The portfolio to manage
+     * @param out Receives the results, expected to be buffered
+     */
+    PortfolioBatch(Portfolio portfolio, Writer out) {
+        this.portfolio = portfolio;
+        this.commands = new PortfolioCommands(portfolio);
+        this.out = out;
+    }
+
+    /**
+     * Run every command of a file, then write a summary.
+     *
+     * @param in Source of the commands
+     * @throws IOException If reading the commands or writing the results
+     * fails
+     */
+    void run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split(",", -1);
+            if (fields[0].trim().equalsIgnoreCase("update") && fields.length == 3) {
+                addUpdate(line, fields[1].trim(), fields[2].trim());
+            } else {
+                applyUpdates();
+                runCommand(line);
+            }
+        }
+        applyUpdates();
+
+        out.write(commandCount + " commands, " + errorCount + " errors in "
+                + String.format("%.3f", (System.nanoTime() - start) / 1e6) + " ms" + System.lineSeparator());
+        out.flush();
+    }
+
+    /**
+     * Queue a price update, applying the queue once it is full. An invalid
+     * price applies the queue first, so the updates before it are not
+     * replaced by it.
+     *
+     * @param line Command line
+     * @param symbol Symbol field
+     * @param priceText Price field
+     * @throws IOException If writing the results fails
+     */
+    private void addUpdate(String line, String symbol, String priceText) throws IOException {
+        double price;
+
+        try {
+            price = Double.parseDouble(priceText);
+
+            if (!(price > 0) || Double.isInfinite(price)) {
+                throw new Exception();
+            }
+        } catch (Exception e) {
+            applyUpdates();
+            long start = System.nanoTime();
+            List<String> messages = new ArrayList<>();
+            messages.add("Error: Price should be numeric and positive.");
+            report(line, messages);
+            reportTime(start, 1);
+            return;
+        }
+
+        // A later update of the same symbol wins, as if applied in order
+        pendingPrices.remove(symbol);
+        pendingPrices.put(symbol, price);
+        pendingLines.add(line);
+        pendingSymbols.add(symbol);
+        if (pendingLines.size() >= MAX_PRICE_BATCH) {
+            applyUpdates();
+        }
+    }
+
+    /**
+     * Apply the queued price updates at once, then echo every update with
+     * its own messages.
+     *
+     * @throws IOException If writing the results fails
+     */
+    private void applyUpdates() throws IOException {
+        if (pendingLines.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        PriceUpdateResult result = portfolio.updatePrices(pendingPrices);
+        Set<String> unknownSymbols = new HashSet<>(result.getUnknownSymbols());
+        Set<String> invalidPrices = new HashSet<>(result.getInvalidPrices());
+
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < pendingLines.size(); i++) {
+            String symbol = pendingSymbols.get(i);
+            messages.clear();
+            if (unknownSymbols.contains(symbol)) {
+                messages.add("Error: Investment does not exist.");
+            } else if (invalidPrices.contains(symbol)) {
+                messages.add("Error: Price should be numeric and positive.");
+            } else {
+                messages.add("Ok: Price has been updated.");
+            }
+            report(pendingLines.get(i), messages);
+        }
+        reportTime(start, pendingLines.size());
+
+        pendingPrices.clear();
+        pendingLines.clear();
+        pendingSymbols.clear();
+    }
+
+    /**
+     * Run one command other than a price update.
+     *
+     * @param line Command line
+     * @throws IOException If writing the results fails
+     */
+    private void runCommand(String line) throws IOException {
+        long start = System.nanoTime();
+        List<String> messages = new ArrayList<>();
+        Consumer<String> sink = messages::add;
+        String[] fields = line.split(",", 6);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+
+        try {
+            String command = fields[0].toLowerCase();
+            if (command.equals("buy") && fields.length == 6 && fields[1].equalsIgnoreCase("stock")) {
+                commands.buyStock(fields[2], fields[5], fields[3], fields[4], sink);
+            } else if (command.equals("buy") && fields.length == 6 && fields[1].equalsIgnoreCase("fund")) {
+                commands.buyMutualFund(fields[2], fields[5], fields[3], fields[4], sink);
+            } else if (command.equals("sell") && fields.length == 3) {
+                commands.sell(fields[1], fields[2], sink);
+            } else if (command.equals("update")) {
+                messages.add("Error: Update should be update,symbol,price.");
+            } else if (command.equals("search") && fields.length == 5) {
+                search(PortfolioCommands.parseQuery(fields[1], fields[2], fields[3], fields[4]), sink);
+            } else if (command.equals("gains") && fields.length == 1) {
+                messages.add("Total gain: $" + InvestmentFormatter.formatAmount(portfolio.getSnapshot().getTotals().getUnrealizedGainOrLoss()));
+            } else if (command.equals("save") && fields.length == 1) {
+                messages.add(portfolio.trySave() ? "Ok: Portfolio has been saved." : "Error: Cannot save portfolio.");
+            } else {
+                messages.add("Error: Unknown command.");
+            }
+        } catch (RuntimeException e) {
+            messages.add("Error: " + e.getMessage());
+        }
+
+        report(line, messages);
+        reportTime(start, 1);
+    }
+
+    /**
+     * Search the portfolio and list the matching investments, one per line.
+     *
+     * @param query Search criteria
+     * @param messages Receives the messages
+     */
+    private void search(InvestmentQuery query, Consumer<String> messages) {
+        ArrayList<Investment> investments = portfolio.search(query);
+        messages.accept(investments.isEmpty() ? "Search returned an empty result." : investments.size() + " investments found.");
+
+        StringBuilder row = new StringBuilder(128);
+        for (Investment investment : investments) {
+            row.setLength(0);
+            row.append(investment instanceof Stock ? "stock" : "fund").append(", ")
+                    .append(investment.getSymbol()).append(", ")
+                    .append(investment.getName()).append(", ")
+                    .append(investment.getQuantity()).append(", ");
+            InvestmentFormatter.appendAmount(row, investment.getPrice());
+            messages.accept(row.toString());
+        }
+    }
+
+    /**
+     * Write a command and its messages. The command counts as failed once,
+     * however many errors it reported.
+     *
+     * @param command Command line
+     * @param messages Messages of the command
+     * @throws IOException If writing the results fails
+     */
+    private void report(String command, List<String> messages) throws IOException {
+        commandCount++;
+
+        String separator = System.lineSeparator();
+        out.write("> " + command + separator);
+        boolean failed = false;
+        for (String message : messages) {
+            failed |= message.startsWith("Error:");
+            out.write(message + separator);
+        }
+        if (failed) {
+            errorCount++;
+        }
+    }
+
+    /**
+     * Write the time the commands just reported took.
+     *
+     * @param start Value of System.nanoTime() when the commands started
+     * @param count Number of commands run together
+     * @throws IOException If writing the results fails
+     */
+    private void reportTime(long start, int count) throws IOException {
+        long elapsed = System.nanoTime() - start;
+        out.write(String.format(count == 1 ? "(%.3f ms)" : "(%.3f ms for %d commands)", elapsed / 1e6, count) + System.lineSeparator());
+    }
+}
@@ -0,0 +1,279 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the hot paths of the portfolio on synthetic portfolios of 1k,
+ * 100k and 1M investments: loading and saving, symbol lookups, the three
+ * kinds of search, adding and removing investments, the total gain and the
+ * formatting of investments.
+ *
+ * Every benchmark is run a few times to warm up and then measured, and the
+ * average and best time per operation are printed. Run with a large heap,
+ * for example: java -Xmx4g ePortfolio.PortfolioBenchmark [filter] [sizes...]
+ *
+ * @author Me
+ */
+public final class PortfolioBenchmark {
+
+    /**
+     * Default sizes of the synthetic portfolios.
+     */
+    private static final int[] SIZES = {1000, 100000, 1000000};
+
+    /**
+     * Runs before measuring, and measured runs.
+     */
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    /**
+     * Number of lookups or searches in one run.
+     */
+    private static final int LOOKUPS = 10000;
+    private static final int SEARCHES = 100;
+
+    /**
+     * Words the synthetic names are made of.
+     */
+    private static final String[] WORDS = {"global", "capital", "energy", "growth", "income", "bank", "tech",
+        "health", "index", "bond", "equity", "fund", "pacific", "atlantic", "value", "total", "market", "systems"};
+
+    /**
+     * One measured operation.
+     */
+    private interface Operation {
+
+        /**
+         * Run the operation.
+         *
+         * @return A value derived from the work done, so it is not optimized
+         * away
+         * @throws Exception If the operation fails
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Sum of the values returned by the operations.
+     */
+    private static long blackhole;
+
+    private PortfolioBenchmark() {
+    }
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args Optional name filter followed by optional sizes
+     * @throws IOException If the temporary files cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Locale.setDefault(Locale.US);
+        String filter = args.length > 0 ? args[0] : "";
+        int[] sizes = SIZES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Path directory = Files.createTempDirectory("portfolio-benchmark");
+        try {
+            for (int size : sizes) {
+                run(filter, size, directory);
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        System.out.println("(" + blackhole + ")");
+    }
+
+    /**
+     * Run the benchmarks on a portfolio of one size.
+     *
+     * @param filter Only benchmarks whose name contains it are run
+     * @param size Number of investments
+     * @param directory Directory for the portfolio files
+     * @throws IOException If the portfolio file cannot be created
+     */
+    private static void run(String filter, int size, Path directory) throws IOException {
+        // An empty file loads without complaint, a missing one does not
+        String textFile = Files.createFile(directory.resolve("portfolio-" + size + ".txt")).toString();
+        String binaryFile = directory.resolve("portfolio-" + size + PortfolioBinaryFormat.EXTENSION).toString();
+
+        Portfolio portfolio = new Portfolio(textFile);
+        List<Investment> investments = createInvestments(size, new Random(size));
+        for (Investment investment : investments) {
+            portfolio.addToList(investment);
+        }
+        portfolio.trySave();
+        portfolio.trySaveAs(binaryFile);
+
+        Random random = new Random(42);
+        String[] symbols = new String[LOOKUPS];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = investments.get(random.nextInt(size)).getSymbol();
+        }
+
+        measure(filter, "load text", size, 1, () -> new Portfolio(textFile).getSnapshot().size());
+        measure(filter, "load binary", size, 1, () -> new Portfolio(binaryFile).getSnapshot().size());
+        measure(filter, "save text", size, 1, () -> portfolio.trySave() ? 1 : 0);
+        measure(filter, "save binary", size, 1, () -> {
+            portfolio.trySaveAs(binaryFile);
+            return 1;
+        });
+
+        measure(filter, "findStock", size, LOOKUPS, () -> {
+            long found = 0;
+            for (String symbol : symbols) {
+                if (portfolio.findStock(symbol) != null) {
+                    found++;
+                }
+            }
+            return found;
+        });
+
+        measure(filter, "search symbol", size, SEARCHES, () -> {
+            long found = 0;
+            for (int i = 0; i < SEARCHES; i++) {
+                found += portfolio.searchInvestments(symbols[i], "", 0, Double.MAX_VALUE).size();
+            }
+            return found;
+        });
+        measure(filter, "search keyword", size, SEARCHES, () -> {
+            long found = 0;
+            for (int i = 0; i < SEARCHES; i++) {
+                found += portfolio.searchInvestments("", WORDS[i % WORDS.length] + " " + WORDS[(i * 7 + 3) % WORDS.length], 0, Double.MAX_VALUE).size();
+            }
+            return found;
+        });
+        measure(filter, "search price", size, SEARCHES, () -> {
+            long found = 0;
+            for (int i = 0; i < SEARCHES; i++) {
+                found += portfolio.searchInvestments("", "", 100 + i, 101 + i).size();
+            }
+            return found;
+        });
+
+        int churn = Math.min(size, LOOKUPS);
+        measure(filter, "add and remove", size, churn, () -> {
+            List<Investment> added = createInvestments(churn, new Random(churn));
+            for (Investment investment : added) {
+                portfolio.addToList(investment);
+            }
+            for (Investment investment : added) {
+                portfolio.removeFromList(investment);
+            }
+            return added.size();
+        });
+
+        measure(filter, "gains loop", size, 1, () -> {
+            double total = 0;
+            for (Investment investment : portfolio.getInvestments()) {
+                total += investment.computeUnrealizedGainOrLoss();
+            }
+            return (long) total;
+        });
+        measure(filter, "gains snapshot", size, 1, () -> {
+            double total = 0;
+            for (Holding holding : portfolio.getSnapshot()) {
+                total += holding.computeUnrealizedGainOrLoss();
+            }
+            return (long) total;
+        });
+        measure(filter, "gains total", size, 1, () -> (long) portfolio.getSnapshot().getTotals().getUnrealizedGainOrLoss());
+
+        int formatted = Math.min(size, LOOKUPS);
+        measure(filter, "toString", size, formatted, () -> {
+            long length = 0;
+            for (int i = 0; i < formatted; i++) {
+                length += investments.get(i).toString().length();
+            }
+            return length;
+        });
+        measure(filter, "formatter", size, formatted, () -> {
+            StringBuilder out = new StringBuilder(256);
+            long length = 0;
+            for (int i = 0; i < formatted; i++) {
+                out.setLength(0);
+                InvestmentFormatter.appendTo(out, investments.get(i));
+                length += out.length();
+            }
+            return length;
+        });
+    }
+
+    /**
+     * Warm up and measure an operation, printing the time per operation.
+     *
+     * @param filter Only benchmarks whose name contains it are run
+     * @param name Name of the benchmark
+     * @param size Number of investments
+     * @param operations Number of operations done by one run
+     * @param operation Operation to measure
+     */
+    private static void measure(String filter, String name, int size, int operations, Operation operation) {
+        if (!name.contains(filter)) {
+            return;
+        }
+
+        try {
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                blackhole += operation.run();
+            }
+
+            long total = 0;
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                long start = System.nanoTime();
+                blackhole += operation.run();
+                long elapsed = System.nanoTime() - start;
+                total += elapsed;
+                best = Math.min(best, elapsed);
+            }
+
+            System.out.printf("%-16s %9d %14.1f ns/op %14.1f ns/op best%n", name, size,
+                    (double) total / MEASURED_RUNS / operations, (double) best / operations);
+        } catch (Exception e) {
+            System.err.println("Cannot run benchmark '" + name + "': " + e);
+        }
+    }
+
+    /**
+     * Create synthetic investments, two stocks for every mutual fund.
+     *
+     * @param count Number of investments
+     * @param random Source of the prices and names
+     * @return Investments
+     */
+    private static List<Investment> createInvestments(int count, Random random) {
+        List<Investment> investments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            int quantity = 1 + random.nextInt(1000);
+            double price = 1 + random.nextInt(100000) / 100.0;
+            String symbol = Integer.toString(random.nextInt(), 36).replace('-', 'X') + i;
+            if (i % 3 == 2) {
+                investments.add(new MutualFund("F" + symbol, name, quantity, price));
+            } else {
+                investments.add(new Stock("S" + symbol, name, quantity, price));
+            }
+        }
+        return investments;
+    }
+}
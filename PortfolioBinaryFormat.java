@@ -0,0 +1,329 @@
+package ePortfolio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of a portfolio, an alternative to the text file for large
+ * portfolios. The layout is a header, a table of the distinct symbols and
+ * names, one fixed width column per field and a CRC32 of everything before
+ * it:
+ *
+ * <pre>
+ * "EPFB" version:short count:int
+ * strings:int (length:int utf8:byte*)*
+ * type:byte* symbol:int* name:int* quantity:int* price:double* bookValue:double*
+ * crc:long
+ * </pre>
+ *
+ * Prices and book values are stored exactly, without rounding. Version 1
+ * stored the strings with DataOutput.writeUTF, which is limited to 64 KB, and
+ * can still be read. Records with invalid values are skipped, as in the text
+ * file.
+ *
+ * @author Me
+ */
+final class PortfolioBinaryFormat {
+
+    /**
+     * File extension selecting this format.
+     */
+    static final String EXTENSION = ".bin";
+
+    /**
+     * First bytes of every snapshot, "EPFB".
+     */
+    private static final int MAGIC = 0x45504642;
+
+    /**
+     * Version of the layout written by this class, and the former version
+     * storing strings with writeUTF.
+     */
+    private static final short VERSION = 2;
+    private static final short UTF_VERSION = 1;
+
+    /**
+     * Type codes of the investments.
+     */
+    private static final byte STOCK = 1;
+    private static final byte MUTUAL_FUND = 2;
+
+    /**
+     * Bytes of the header, of the columns of one record and of the checksum.
+     */
+    private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final int RECORD_BYTES = 1 + 3 * Integer.BYTES + 2 * Double.BYTES;
+    private static final int CHECKSUM_BYTES = Long.BYTES;
+
+    private PortfolioBinaryFormat() {
+    }
+
+    /**
+     * Return whether the file name selects the binary format.
+     *
+     * @param fileName Name of the portfolio file
+     * @return If binary
+     */
+    static boolean isBinary(String fileName) {
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Write a snapshot of the investments.
+     *
+     * @param out Destination, expected to be buffered
+     * @param investments Investments to write in order
+     * @throws IOException If writing fails
+     * @throws InterruptedIOException If the thread is interrupted
+     */
+    static void write(OutputStream out, Collection<Investment> investments) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream data = new DataOutputStream(new CheckedOutputStream(out, crc));
+
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] symbols = new int[investments.size()];
+        int[] names = new int[investments.size()];
+        int count = 0;
+        for (Investment investment : investments) {
+            checkInterrupted(count);
+            symbols[count] = stringIds.computeIfAbsent(investment.getSymbol(), key -> addString(strings, key));
+            names[count] = stringIds.computeIfAbsent(investment.getName(), key -> addString(strings, key));
+            count++;
+        }
+
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(count);
+
+        data.writeInt(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+
+        byte[] types = new byte[count];
+        int[] quantities = new int[count];
+        double[] prices = new double[count];
+        double[] bookValues = new double[count];
+        int i = 0;
+        for (Investment investment : investments) {
+            checkInterrupted(i);
+            types[i] = investment instanceof Stock ? STOCK : MUTUAL_FUND;
+            quantities[i] = investment.getQuantity();
+            prices[i] = investment.getPrice();
+            bookValues[i] = investment.getBookValue();
+            i++;
+        }
+
+        data.write(types);
+        writeInts(data, symbols);
+        writeInts(data, names);
+        writeInts(data, quantities);
+        writeDoubles(data, prices);
+        writeDoubles(data, bookValues);
+
+        data.flush();
+        new DataOutputStream(out).writeLong(crc.getValue());
+        out.flush();
+    }
+
+    /**
+     * Read a snapshot, checking its version and checksum before handing any
+     * investment over. Records with invalid values are skipped. Counts and
+     * lengths are checked against the size of the snapshot before anything
+     * is allocated, so a corrupt header is reported rather than exhausting
+     * memory.
+     *
+     * @param in Source, expected to be buffered
+     * @param size Number of bytes of the snapshot
+     * @param sink Receives the investments in order
+     * @param skipped Receives a description of every invalid record skipped
+     * @throws IOException If reading fails or the snapshot is corrupt
+     */
+    static void read(InputStream in, long size, Consumer<Investment> sink, Consumer<String> skipped) throws IOException {
+        CRC32 crc = new CRC32();
+        DataInputStream data = new DataInputStream(new CheckedInputStream(in, crc));
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a binary portfolio");
+        }
+
+        short version = data.readShort();
+        if (version != VERSION && version != UTF_VERSION) {
+            throw new IOException("Unsupported binary portfolio version " + version);
+        }
+
+        // Bytes left for the strings once the columns and checksum are known
+        int count = data.readInt();
+        int stringCount = data.readInt();
+        long remaining = size - HEADER_BYTES - CHECKSUM_BYTES - (long) count * RECORD_BYTES;
+        int lengthBytes = version == UTF_VERSION ? Short.BYTES : Integer.BYTES;
+        if (count < 0 || stringCount < 0 || remaining < (long) stringCount * lengthBytes) {
+            throw new IOException("Corrupt binary portfolio");
+        }
+
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            if (version == UTF_VERSION) {
+                strings[i] = data.readUTF();
+            } else {
+                byte[] bytes = readString(data, remaining - (long) (stringCount - i) * lengthBytes);
+                remaining -= lengthBytes + bytes.length;
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        byte[] types = new byte[count];
+        data.readFully(types);
+        int[] symbols = readInts(data, count);
+        int[] names = readInts(data, count);
+        int[] quantities = readInts(data, count);
+        double[] prices = readDoubles(data, count);
+        double[] bookValues = readDoubles(data, count);
+
+        long expected = crc.getValue();
+        if (new DataInputStream(in).readLong() != expected) {
+            throw new IOException("Checksum mismatch in binary portfolio");
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (symbols[i] < 0 || symbols[i] >= stringCount || names[i] < 0 || names[i] >= stringCount) {
+                throw new IOException("Corrupt binary portfolio");
+            }
+
+            String symbol = strings[symbols[i]];
+            String name = strings[names[i]];
+            Investment investment;
+            try {
+                if (types[i] == STOCK) {
+                    investment = new Stock(symbol, name, quantities[i], prices[i], bookValues[i]);
+                } else {
+                    investment = new MutualFund(symbol, name, quantities[i], prices[i], bookValues[i]);
+                }
+            } catch (IllegalArgumentException e) {
+                skipped.accept("Skipping invalid record '" + symbol + "': " + e.getMessage());
+                continue;
+            }
+            sink.accept(investment);
+        }
+    }
+
+    /**
+     * Read the bytes of a length prefixed UTF-8 string.
+     *
+     * @param data Source
+     * @param limit Most bytes the string may have
+     * @return Bytes of the string
+     * @throws IOException If reading fails or the length is invalid
+     */
+    private static byte[] readString(DataInputStream data, long limit) throws IOException {
+        int length = data.readInt();
+        if (length < 0 || length > limit) {
+            throw new IOException("Corrupt binary portfolio");
+        }
+
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Stop writing if the thread was interrupted, checking once every few
+     * thousand investments.
+     *
+     * @param written Number of investments handled so far
+     * @throws InterruptedIOException If the thread is interrupted
+     */
+    private static void checkInterrupted(int written) throws InterruptedIOException {
+        if ((written & PortfolioFileWriter.CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Save cancelled");
+        }
+    }
+
+    /**
+     * Add a string to the table.
+     *
+     * @param strings Table of strings
+     * @param string String to add
+     * @return Position of the string in the table
+     */
+    private static int addString(List<String> strings, String string) {
+        strings.add(string);
+        return strings.size() - 1;
+    }
+
+    /**
+     * Write a column of whole numbers in one block.
+     *
+     * @param data Destination
+     * @param values Values
+     * @throws IOException If writing fails
+     */
+    private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+        ByteBuffer column = ByteBuffer.allocate(values.length * Integer.BYTES);
+        column.asIntBuffer().put(values);
+        data.write(column.array());
+    }
+
+    /**
+     * Write a column of decimal numbers in one block.
+     *
+     * @param data Destination
+     * @param values Values
+     * @throws IOException If writing fails
+     */
+    private static void writeDoubles(DataOutputStream data, double[] values) throws IOException {
+        ByteBuffer column = ByteBuffer.allocate(values.length * Double.BYTES);
+        column.asDoubleBuffer().put(values);
+        data.write(column.array());
+    }
+
+    /**
+     * Read a column of whole numbers in one block.
+     *
+     * @param data Source
+     * @param count Number of values
+     * @return Values
+     * @throws IOException If reading fails
+     */
+    private static int[] readInts(DataInputStream data, int count) throws IOException {
+        byte[] column = new byte[count * Integer.BYTES];
+        data.readFully(column);
+        int[] values = new int[count];
+        ByteBuffer.wrap(column).asIntBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Read a column of decimal numbers in one block.
+     *
+     * @param data Source
+     * @param count Number of values
+     * @return Values
+     * @throws IOException If reading fails
+     */
+    private static double[] readDoubles(DataInputStream data, int count) throws IOException {
+        byte[] column = new byte[count * Double.BYTES];
+        data.readFully(column);
+        double[] values = new double[count];
+        ByteBuffer.wrap(column).asDoubleBuffer().get(values);
+        return values;
+    }
+}
@@ -0,0 +1,207 @@
+package ePortfolio;
+
+import java.util.OptionalDouble;
+import java.util.function.Consumer;
+
+/**
+ * Buying, selling and searching on a portfolio from text fields, with the
+ * validation and messages shared by the window and the batch mode. Messages
+ * are handed to a callback, so no user interface is needed.
+ *
+ * @author Me
+ */
+final class PortfolioCommands {
+
+    /**
+     * The portfolio to manage.
+     */
+    private final Portfolio portfolio;
+
+    /**
+     * Initialize the commands.
+     *
+     * @param portfolio The portfolio to manage
+     */
+    PortfolioCommands(Portfolio portfolio) {
+        this.portfolio = portfolio;
+    }
+
+    /**
+     * Purchase a stock.
+     *
+     * @param symbol Symbol field
+     * @param name Name field
+     * @param quantityText Quantity field
+     * @param priceText Price field
+     * @param messages Receives the messages
+     */
+    void buyStock(String symbol, String name, String quantityText, String priceText, Consumer<String> messages) {
+        // Get the quantity
+        int quantity;
+
+        try {
+            quantity = Integer.parseInt(quantityText);
+        } catch (Exception e) {
+            messages.accept("Error: Quantity should be a whole number.");
+            return;
+        }
+
+        // Find or add the stock at once, the price is only read for a new one
+        Stock stock;
+
+        // Only a new stock is created, so the factory tells which one failed
+        boolean[] created = new boolean[1];
+
+        try {
+            stock = portfolio.buyStock(symbol, quantity, () -> {
+                created[0] = true;
+                return new Stock(symbol, name, quantity, Double.parseDouble(priceText));
+            });
+        } catch (NumberFormatException e) {
+            messages.accept("New stock detected...");
+            messages.accept("Error: Price should be numeric.");
+            return;
+        } catch (IllegalArgumentException e) {
+            messages.accept(created[0] ? "New stock detected..." : "Existing stock detected. Name and price fields are ignored.");
+            messages.accept("Error: " + e.getMessage());
+            return;
+        }
+
+        if (stock == null) {
+            // Case for a new stock
+            messages.accept("New stock detected...");
+            messages.accept("Ok: Stock has been added to portfolio.");
+        } else {
+            // Case for existing stock
+            messages.accept("Existing stock detected. Name and price fields are ignored.");
+            messages.accept("Ok: Stock quantity has been updated.");
+        }
+    }
+
+    /**
+     * Purchase a mutual fund.
+     *
+     * @param symbol Symbol field
+     * @param name Name field
+     * @param quantityText Quantity field
+     * @param priceText Price field
+     * @param messages Receives the messages
+     */
+    void buyMutualFund(String symbol, String name, String quantityText, String priceText, Consumer<String> messages) {
+        // Get the quantity
+        int quantity;
+
+        try {
+            quantity = Integer.parseInt(quantityText);
+        } catch (Exception e) {
+            messages.accept("Error: Quantity should be a whole number.");
+            return;
+        }
+
+        // Find or add the fund at once, the price is only read for a new one
+        MutualFund fund;
+
+        // Only a new fund is created, so the factory tells which one failed
+        boolean[] created = new boolean[1];
+
+        try {
+            fund = portfolio.buyMutualFund(symbol, quantity, () -> {
+                created[0] = true;
+                return new MutualFund(symbol, name, quantity, Double.parseDouble(priceText));
+            });
+        } catch (NumberFormatException e) {
+            messages.accept("New mutual fund detected...");
+            messages.accept("Error: Price should be numeric.");
+            return;
+        } catch (IllegalArgumentException e) {
+            messages.accept(created[0] ? "New mutual fund detected..." : "Existing mutual fund detected. Name and price fields are ignored.");
+            messages.accept("Error: " + e.getMessage());
+            return;
+        }
+
+        if (fund == null) {
+            // Case for a new fund
+            messages.accept("New mutual fund detected...");
+            messages.accept("Ok: Mutual fund has been added to portfolio.");
+        } else {
+            // Case for existing fund
+            messages.accept("Existing mutual fund detected. Name and price fields are ignored.");
+            messages.accept("Ok: Mutual fund quantity has been updated.");
+        }
+    }
+
+    /**
+     * Sell an investment, the stock if both a stock and a mutual fund have
+     * the symbol.
+     *
+     * @param symbol Symbol field
+     * @param quantityText Quantity field
+     * @param messages Receives the messages
+     * @throws IllegalArgumentException If the quantity is invalid
+     */
+    void sell(String symbol, String quantityText, Consumer<String> messages) {
+        // Get the quantity
+        int quantity;
+
+        try {
+            quantity = Integer.parseInt(quantityText);
+        } catch (Exception e) {
+            messages.accept("Error: Quantity should be a whole number.");
+            return;
+        }
+
+        // Sell the mentioned quantity, removing the investment once sold out
+        OptionalDouble amount = portfolio.sell(symbol, quantity);
+
+        if (!amount.isPresent()) {
+            messages.accept("Error: Investment does not exist.");
+            return;
+        }
+
+        messages.accept("Ok: Realized Gain/Loss: $" + InvestmentFormatter.formatAmount(amount.getAsDouble()));
+    }
+
+    /**
+     * Build a search query from the search fields.
+     *
+     * @param symbol Symbol field
+     * @param keywords Keywords field
+     * @param lowPriceText Low price field, empty for no minimum
+     * @param highPriceText High price field, empty for no maximum
+     * @return Query
+     * @throws IllegalArgumentException If a price is invalid
+     */
+    static InvestmentQuery parseQuery(String symbol, String keywords, String lowPriceText, String highPriceText) {
+        // Get the low price if provided
+        double lowPrice = 0;
+
+        if (!lowPriceText.isEmpty()) {
+            try {
+                lowPrice = Double.parseDouble(lowPriceText);
+
+                if (lowPrice < 0) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Low price should be numeric and positive.");
+            }
+        }
+
+        // Get the high price if provided
+        double highPrice = Double.MAX_VALUE;
+
+        if (!highPriceText.isEmpty()) {
+            try {
+                highPrice = Double.parseDouble(highPriceText);
+
+                if (highPrice < 0 || highPrice < lowPrice) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                throw new IllegalArgumentException("High price field should be numeric and positive and higher than the low price.");
+            }
+        }
+
+        return new InvestmentQuery(symbol, keywords, lowPrice, highPrice);
+    }
+}
@@ -0,0 +1,590 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Parser for the text portfolio file. Each line holds one key = "value" pair
+ * and records are separated by blank lines. Lines are tokenized directly on
+ * the bytes, so no regex or intermediate strings are needed for the keys and
+ * numbers.
+ *
+ * @author Me
+ */
+final class PortfolioFileParser {
+
+    /**
+     * Keys and values of the file format.
+     */
+    private static final byte[] TYPE = ascii("type");
+    private static final byte[] SYMBOL = ascii("symbol");
+    private static final byte[] NAME = ascii("name");
+    private static final byte[] QUANTITY = ascii("quantity");
+    private static final byte[] PRICE = ascii("price");
+    private static final byte[] BOOK_VALUE = ascii("bookvalue");
+    private static final byte[] STOCK = ascii("stock");
+
+    /**
+     * Flags of the fields seen in the record being parsed.
+     */
+    private static final int HAS_TYPE = 1;
+    private static final int HAS_SYMBOL = 2;
+    private static final int HAS_NAME = 4;
+    private static final int HAS_QUANTITY = 8;
+    private static final int HAS_PRICE = 16;
+    private static final int HAS_BOOK_VALUE = 32;
+    private static final int HAS_ALL = 63;
+
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Largest part of a file mapped at once.
+     */
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    /**
+     * Smallest part of a mapped file parsed by a single task.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Receives the investments in file order.
+     */
+    private final Consumer<Investment> sink;
+
+    /**
+     * Receives a description of every invalid record skipped.
+     */
+    private final Consumer<String> skipped;
+
+    /**
+     * Scratch space for decoding strings from buffers without a backing array.
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Fields of the record being parsed.
+     */
+    private int fields;
+    private boolean isStock;
+    private String symbol;
+    private String name;
+    private int quantity;
+    private double price;
+    private double bookValue;
+
+    /**
+     * Problem found in the record being parsed, if any.
+     */
+    private String error;
+
+    /**
+     * Investments and skipped records parsed from one chunk of a mapped file.
+     */
+    private static final class ChunkResult {
+
+        /**
+         * Parsed investments in chunk order.
+         */
+        final List<Investment> investments = new ArrayList<>();
+
+        /**
+         * Descriptions of the invalid records skipped.
+         */
+        final List<String> skipped = new ArrayList<>();
+    }
+
+    /**
+     * Initialize a parser.
+     *
+     * @param sink Receives the parsed investments
+     * @param skipped Receives a description of every invalid record skipped
+     */
+    PortfolioFileParser(Consumer<Investment> sink, Consumer<String> skipped) {
+        this.sink = sink;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Parse a whole stream, reading it through a reusable buffer.
+     *
+     * @param in Stream to parse
+     * @param sink Receives the parsed investments
+     * @param skipped Receives a description of every invalid record skipped
+     * @throws IOException If the stream cannot be read
+     */
+    static void read(InputStream in, Consumer<Investment> sink, Consumer<String> skipped) throws IOException {
+        PortfolioFileParser parser = new PortfolioFileParser(sink, skipped);
+        byte[] buffer = new byte[1 << 16];
+        ByteBuffer view = ByteBuffer.wrap(buffer);
+        int length = 0;
+        int read;
+
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    parser.parseLine(view, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+
+            // Carry the incomplete last line over, growing for very long lines
+            length -= lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                view = ByteBuffer.wrap(buffer);
+            }
+        }
+
+        if (length > 0) {
+            parser.parseLine(view, 0, length);
+        }
+        parser.finish();
+    }
+
+    /**
+     * Parse a whole file by memory mapping it and parsing chunks split at
+     * blank lines in parallel on the common fork-join pool. The investments
+     * and the skipped records are handed over in file order on the calling
+     * thread.
+     *
+     * @param channel Channel of the file to parse
+     * @param sink Receives the parsed investments
+     * @param skipped Receives a description of every invalid record skipped
+     * @throws IOException If the file cannot be mapped
+     */
+    static void readMapped(FileChannel channel, Consumer<Investment> sink, Consumer<String> skipped) throws IOException {
+        long size = channel.size();
+        long regionStart = 0;
+
+        while (regionStart < size) {
+            long regionSize = Math.min(size - regionStart, MAX_REGION_SIZE);
+            ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+            boolean last = regionStart + regionSize == size;
+
+            // Records may not cross regions, so stop at the last blank line
+            int regionEnd = last ? (int) regionSize : lastRecordBoundary(region, (int) regionSize);
+            if (regionEnd <= 0) {
+                throw new IOException("Record too large to map");
+            }
+
+            int parallelism = ForkJoinPool.getCommonPoolParallelism();
+            int chunkSize = Math.max(MIN_CHUNK_SIZE, regionEnd / (parallelism * 4));
+            List<int[]> chunks = new ArrayList<>();
+            int chunkStart = 0;
+            while (chunkStart < regionEnd) {
+                int chunkEnd = chunkStart + chunkSize >= regionEnd
+                        ? regionEnd
+                        : nextRecordBoundary(region, chunkStart + chunkSize, regionEnd);
+                chunks.add(new int[]{chunkStart, chunkEnd});
+                chunkStart = chunkEnd;
+            }
+
+            List<ChunkResult> parsed = chunks.parallelStream()
+                    .map(chunk -> {
+                        ChunkResult result = new ChunkResult();
+                        parse(region.duplicate(), chunk[0], chunk[1], result.investments::add, result.skipped::add);
+                        return result;
+                    })
+                    .collect(Collectors.toList());
+
+            for (ChunkResult result : parsed) {
+                result.investments.forEach(sink);
+                result.skipped.forEach(skipped);
+            }
+
+            regionStart += regionEnd;
+        }
+    }
+
+    /**
+     * Find the position after the first blank line at or after a position.
+     *
+     * @param buffer Buffer to scan
+     * @param from Position to start from
+     * @param to Position after the last byte to scan
+     * @return Position where the next record starts, or to if none
+     */
+    private static int nextRecordBoundary(ByteBuffer buffer, int from, int to) {
+        int lineStart = -1;
+        boolean blank = false;
+
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                if (blank) {
+                    return i + 1;
+                }
+                lineStart = i + 1;
+                blank = true;
+            } else if (lineStart >= 0 && !isSpace(b)) {
+                blank = false;
+            }
+        }
+
+        return to;
+    }
+
+    /**
+     * Find the position after the last blank line before a position.
+     *
+     * @param buffer Buffer to scan
+     * @param to Position after the last byte to scan
+     * @return Position where the last complete record ends, or 0 if none
+     */
+    private static int lastRecordBoundary(ByteBuffer buffer, int to) {
+        int lineEnd = -1;
+
+        for (int i = to - 1; i >= 0; i--) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                if (lineEnd >= 0) {
+                    return lineEnd + 1;
+                }
+                lineEnd = i;
+            } else if (!isSpace(b)) {
+                lineEnd = -1;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Parse the records between two absolute positions of a buffer. The range
+     * is expected to start and end on record boundaries.
+     *
+     * @param buffer Buffer holding the file contents
+     * @param from First position
+     * @param to Position after the last one
+     * @param sink Receives the parsed investments
+     * @param skipped Receives a description of every invalid record skipped
+     */
+    static void parse(ByteBuffer buffer, int from, int to, Consumer<Investment> sink, Consumer<String> skipped) {
+        PortfolioFileParser parser = new PortfolioFileParser(sink, skipped);
+        int lineStart = from;
+
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                parser.parseLine(buffer, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+
+        if (lineStart < to) {
+            parser.parseLine(buffer, lineStart, to);
+        }
+        parser.finish();
+    }
+
+    /**
+     * Complete the record being parsed at the end of the input.
+     */
+    void finish() {
+        endRecord();
+    }
+
+    /**
+     * Parse one line, without its line terminator.
+     *
+     * @param buffer Buffer holding the line
+     * @param start Absolute position of the first byte
+     * @param end Absolute position after the last byte
+     */
+    void parseLine(ByteBuffer buffer, int start, int end) {
+        start = skipSpaces(buffer, start, end);
+        end = trimSpaces(buffer, start, end);
+
+        if (start == end) {
+            endRecord();
+            return;
+        }
+
+        int equals = start;
+        while (equals < end && buffer.get(equals) != '=') {
+            equals++;
+        }
+
+        if (equals == end) {
+            fail("missing '='");
+            return;
+        }
+
+        int keyEnd = trimSpaces(buffer, start, equals);
+        int valueStart = skipSpaces(buffer, equals + 1, end);
+        int valueEnd = end;
+
+        if (valueEnd - valueStart >= 2 && buffer.get(valueStart) == '"' && buffer.get(valueEnd - 1) == '"') {
+            valueStart++;
+            valueEnd--;
+        }
+
+        if (matches(buffer, start, keyEnd, TYPE)) {
+            // A new record may start without a blank line in between
+            if (fields != 0) {
+                endRecord();
+            }
+            isStock = matches(buffer, valueStart, valueEnd, STOCK);
+            fields |= HAS_TYPE;
+        } else if (matches(buffer, start, keyEnd, SYMBOL)) {
+            symbol = decode(buffer, valueStart, valueEnd);
+            fields |= HAS_SYMBOL;
+        } else if (matches(buffer, start, keyEnd, NAME)) {
+            name = decode(buffer, valueStart, valueEnd);
+            fields |= HAS_NAME;
+        } else if (matches(buffer, start, keyEnd, QUANTITY)) {
+            quantity = parseInt(buffer, valueStart, valueEnd);
+            fields |= HAS_QUANTITY;
+        } else if (matches(buffer, start, keyEnd, PRICE)) {
+            price = parseDouble(buffer, valueStart, valueEnd);
+            fields |= HAS_PRICE;
+        } else if (matches(buffer, start, keyEnd, BOOK_VALUE)) {
+            bookValue = parseDouble(buffer, valueStart, valueEnd);
+            fields |= HAS_BOOK_VALUE;
+        } else {
+            fail("unknown key '" + decode(buffer, start, keyEnd) + "'");
+        }
+    }
+
+    /**
+     * Hand the completed record over to the sink and start a new one.
+     */
+    private void endRecord() {
+        if (fields == 0 && error == null) {
+            return;
+        }
+
+        if (error == null && fields != HAS_ALL) {
+            error = "missing fields";
+        }
+
+        if (error == null) {
+            try {
+                if (isStock) {
+                    sink.accept(new Stock(symbol, name, quantity, price, bookValue));
+                } else {
+                    sink.accept(new MutualFund(symbol, name, quantity, price, bookValue));
+                }
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+        }
+
+        if (error != null) {
+            skipped.accept("Skipping invalid record '" + (symbol == null ? "" : symbol) + "': " + error);
+        }
+
+        fields = 0;
+        symbol = null;
+        name = null;
+        error = null;
+    }
+
+    /**
+     * Mark the record being parsed as invalid, keeping the first problem.
+     *
+     * @param message Description of the problem
+     */
+    private void fail(String message) {
+        if (error == null) {
+            error = message;
+        }
+        fields |= HAS_TYPE;
+    }
+
+    /**
+     * Parse a whole number.
+     *
+     * @param buffer Buffer holding the number
+     * @param start Absolute position of the first byte
+     * @param end Absolute position after the last byte
+     * @return Value, zero when invalid
+     */
+    private int parseInt(ByteBuffer buffer, int start, int end) {
+        boolean negative = start < end && buffer.get(start) == '-';
+        int i = negative || (start < end && buffer.get(start) == '+') ? start + 1 : start;
+        long value = 0;
+
+        if (i == end) {
+            fail("invalid quantity");
+            return 0;
+        }
+
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || (value = value * 10 + digit) > Integer.MAX_VALUE + 1L) {
+                fail("invalid quantity");
+                return 0;
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            fail("invalid quantity");
+            return 0;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parse a decimal number. Plain decimals with up to 15 significant digits
+     * are computed exactly from their digits, anything else is handed over to
+     * Double.parseDouble.
+     *
+     * @param buffer Buffer holding the number
+     * @param start Absolute position of the first byte
+     * @param end Absolute position after the last byte
+     * @return Value, zero when invalid
+     */
+    private double parseDouble(ByteBuffer buffer, int start, int end) {
+        boolean negative = start < end && buffer.get(start) == '-';
+        int i = negative || (start < end && buffer.get(start) == '+') ? start + 1 : start;
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+
+        boolean plain = i == end && i > start && digits <= 15 && decimals != 0;
+        if (plain && decimals <= 22) {
+            // Both operands are exact, so the division is correctly rounded
+            double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(decode(buffer, start, end));
+        } catch (NumberFormatException e) {
+            fail("invalid number");
+            return 0;
+        }
+    }
+
+    /**
+     * Decode a string from the buffer.
+     *
+     * @param buffer Buffer holding the string
+     * @param start Absolute position of the first byte
+     * @param end Absolute position after the last byte
+     * @return String
+     */
+    private String decode(ByteBuffer buffer, int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+
+        if (scratch.length < end - start) {
+            scratch = new byte[Math.max(end - start, scratch.length * 2)];
+        }
+        for (int i = start; i < end; i++) {
+            scratch[i - start] = buffer.get(i);
+        }
+        return new String(scratch, 0, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare a range of the buffer against an ASCII word.
+     *
+     * @param buffer Buffer to compare
+     * @param start Absolute position of the first byte
+     * @param end Absolute position after the last byte
+     * @param word Word to compare against
+     * @return If equal
+     */
+    private static boolean matches(ByteBuffer buffer, int start, int end, byte[] word) {
+        if (end - start != word.length) {
+            return false;
+        }
+
+        for (int i = 0; i < word.length; i++) {
+            if (buffer.get(start + i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the first position that is not a space.
+     *
+     * @param buffer Buffer to scan
+     * @param start Absolute position of the first byte
+     * @param end Absolute position after the last byte
+     * @return Position
+     */
+    private static int skipSpaces(ByteBuffer buffer, int start, int end) {
+        while (start < end && isSpace(buffer.get(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Return the position after the last byte that is not a space.
+     *
+     * @param buffer Buffer to scan
+     * @param start Absolute position of the first byte
+     * @param end Absolute position after the last byte
+     * @return Position
+     */
+    private static int trimSpaces(ByteBuffer buffer, int start, int end) {
+        while (end > start && isSpace(buffer.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Return whether the byte is a space within a line.
+     *
+     * @param b Byte to check
+     * @return If space
+     */
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Encode a word of the file format.
+     *
+     * @param word Word to encode
+     * @return Bytes
+     */
+    private static byte[] ascii(String word) {
+        return word.getBytes(StandardCharsets.US_ASCII);
+    }
+}
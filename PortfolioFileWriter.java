@@ -0,0 +1,112 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+
+/**
+ * Writer for the text portfolio file read by PortfolioFileParser. Records are
+ * built in a reusable buffer and numbers are formatted by hand, producing the
+ * same text as String.format("%.2f") in the US locale.
+ *
+ * @author Me
+ */
+final class PortfolioFileWriter {
+
+    /**
+     * Largest magnitude, in cents, that is formatted without String.format.
+     */
+    private static final double MAX_FAST_CENTS = 1L << 52;
+
+    /**
+     * Line terminator, the same one used by PrintWriter.println.
+     */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /**
+     * The thread is checked for interruption once every this many records
+     * plus one.
+     */
+    static final int CANCEL_CHECK_MASK = 4095;
+
+    private PortfolioFileWriter() {
+    }
+
+    /**
+     * Write the investments as text records separated by blank lines.
+     *
+     * @param writer Destination, expected to be buffered
+     * @param investments Investments to write in order
+     * @throws IOException If writing fails
+     * @throws InterruptedIOException If the thread is interrupted
+     */
+    static void write(Writer writer, Iterable<Investment> investments) throws IOException {
+        StringBuilder record = new StringBuilder(256);
+        int written = 0;
+
+        for (Investment investment : investments) {
+            if ((++written & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Save cancelled");
+            }
+            record.setLength(0);
+            appendRecord(record, investment);
+            writer.append(record);
+        }
+    }
+
+    /**
+     * Append one record, including the blank line that ends it.
+     *
+     * @param record Destination
+     * @param investment Investment to write
+     */
+    static void appendRecord(StringBuilder record, Investment investment) {
+        record.append("type = \"").append(investment instanceof Stock ? "stock" : "mutualfund").append('"').append(LINE_SEPARATOR);
+        record.append("symbol = \"").append(investment.getSymbol()).append('"').append(LINE_SEPARATOR);
+        record.append("name = \"").append(investment.getName()).append('"').append(LINE_SEPARATOR);
+        record.append("quantity = \"").append(investment.getQuantity()).append('"').append(LINE_SEPARATOR);
+        record.append("price = \"");
+        appendTwoDecimals(record, investment.getPrice());
+        record.append('"').append(LINE_SEPARATOR);
+        record.append("bookvalue = \"");
+        appendTwoDecimals(record, investment.getBookValue());
+        record.append('"').append(LINE_SEPARATOR);
+        record.append(LINE_SEPARATOR);
+    }
+
+    /**
+     * Append a number rounded half up to two decimals. String.format rounds
+     * the shortest decimal form of the double, which can only differ from
+     * rounding the scaled binary value when it sits next to a tie, so those
+     * rare values and very large or non finite ones use String.format.
+     *
+     * @param out Destination
+     * @param value Number to format
+     */
+    static void appendTwoDecimals(StringBuilder out, double value) {
+        double scaled = Math.abs(value) * 100;
+        if (!(scaled < MAX_FAST_CENTS)) {
+            out.append(String.format("%.2f", value));
+            return;
+        }
+
+        double whole = Math.floor(scaled);
+        double fraction = scaled - whole;
+        if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled)) {
+            out.append(String.format("%.2f", value));
+            return;
+        }
+
+        long cents = (long) whole + (fraction > 0.5 ? 1 : 0);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            out.append('-');
+        }
+
+        int remainder = (int) (cents % 100);
+        out.append(cents / 100).append('.');
+        if (remainder < 10) {
+            out.append('0');
+        }
+        out.append(remainder);
+    }
+}
@@ -2,13 +2,18 @@ package ePortfolio;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import javax.swing.AbstractButton;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JButton;
@@ -18,10 +23,15 @@ import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
+import javax.swing.table.DefaultTableCellRenderer;
 
 /**
  * Window for managing portfolio.
@@ -30,11 +40,6 @@ import javax.swing.JTextField;
  */
 public class PortfolioFrame extends JFrame implements ActionListener {
 
-    /**
-     * For formatting purposes.
-     */
-    private static DecimalFormat decimalFormat = new DecimalFormat("#.##");
-
     /**
      * Flips the panels depending on the commands.
      */
@@ -50,6 +55,41 @@ public class PortfolioFrame extends JFrame implements ActionListener {
      */
     private Portfolio portfolio;
 
+    /**
+     * Buys, sells and searches on the portfolio.
+     */
+    private PortfolioCommands commands;
+
+    /**
+     * Describes the operation running in the background.
+     */
+    private JLabel statusLabel = new JLabel(" ");
+
+    /**
+     * Progress of the operation running in the background.
+     */
+    private JProgressBar progressBar = new JProgressBar(0, 100);
+
+    /**
+     * Cancels the operation running in the background.
+     */
+    private JButton cancelButton = new JButton("Cancel");
+
+    /**
+     * Operation running in the background that can be cancelled, if any.
+     */
+    private SwingWorker<?, ?> cancellableTask;
+
+    /**
+     * Save running before exiting, if any. Only the cancel button stops it.
+     */
+    private SwingWorker<Boolean, Void> saveTask;
+
+    /**
+     * Menu of the commands, disabled while saving.
+     */
+    private JMenu commandsMenu = new JMenu("Commands");
+
     /**
      * Initialize the UI.
      *
@@ -64,6 +104,7 @@ public class PortfolioFrame extends JFrame implements ActionListener {
         setLayout(new BorderLayout());
 
         this.portfolio = portfolio;
+        this.commands = new PortfolioCommands(portfolio);
 
         currentPanel.add(new JLabel("<html>"
                 + "Welcome to ePortfolio<br /><br />"
@@ -75,6 +116,22 @@ public class PortfolioFrame extends JFrame implements ActionListener {
 
         add(BorderLayout.CENTER, currentPanel);
 
+        // Create the status bar for operations running in the background
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(BorderLayout.WEST, statusLabel);
+        statusPanel.add(BorderLayout.CENTER, progressBar);
+        statusPanel.add(BorderLayout.EAST, cancelButton);
+        progressBar.setVisible(false);
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> {
+            if (saveTask != null) {
+                saveTask.cancel(true);
+            } else if (cancellableTask != null) {
+                cancellableTask.cancel(true);
+            }
+        });
+        add(BorderLayout.SOUTH, statusPanel);
+
         // Create the different panels for the commands
         panels.put("Buy an Investment", new BuyInvestmentPanel());
         panels.put("Sell an Investment", new SellInvestmentPanel());
@@ -86,7 +143,6 @@ public class PortfolioFrame extends JFrame implements ActionListener {
         JMenuBar menuBar = new JMenuBar();
         setJMenuBar(menuBar);
 
-        JMenu commandsMenu = new JMenu("Commands");
         menuBar.add(commandsMenu);
 
         // Create the menu items that will handle the commands
@@ -104,6 +160,51 @@ public class PortfolioFrame extends JFrame implements ActionListener {
         commandsMenu.add(exitMenuItem);
     }
 
+    /**
+     * Tell the user about an error reading the portfolio file and about the
+     * invalid records skipped while loading it, which the next save does not
+     * write back.
+     */
+    public void showSkippedRecords() {
+        String error = portfolio.getLoadError();
+        if (error != null) {
+            JOptionPane.showMessageDialog(this, "The portfolio file could not be read: " + error + "\n"
+                    + "Only what was read before the error is shown. The file as found is kept as a backup when the portfolio is saved.",
+                    "Damaged portfolio file", JOptionPane.ERROR_MESSAGE);
+        }
+
+        int count = portfolio.getSkippedRecordCount();
+        if (count == 0) {
+            return;
+        }
+
+        StringBuilder message = new StringBuilder();
+        message.append(count).append(" invalid records were skipped while loading the portfolio. ")
+                .append("The file as loaded is kept as a backup when the portfolio is saved.\n\n");
+        for (String record : portfolio.getSkippedRecords()) {
+            message.append(record).append('\n');
+        }
+        if (count > portfolio.getSkippedRecords().size()) {
+            message.append("...\n");
+        }
+
+        JTextArea text = new JTextArea(message.toString(), 12, 50);
+        text.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(text), "Skipped records", JOptionPane.WARNING_MESSAGE);
+    }
+
+    /**
+     * Show the prices a feed has just applied, refreshing the total gain
+     * when it is shown. Called on the event dispatch thread.
+     *
+     * @param result Result of the price update
+     */
+    public void pricesUpdated(PriceUpdateResult result) {
+        if (result.getUpdated() > 0 && currentPanel instanceof GetGainsPanel) {
+            ((GetGainsPanel) currentPanel).updateTotal();
+        }
+    }
+
     /**
      * Show the appropriate panel on the selected command
      *
@@ -112,9 +213,8 @@ public class PortfolioFrame extends JFrame implements ActionListener {
     @Override
     public void actionPerformed(ActionEvent e) {
         if (e.getActionCommand().equalsIgnoreCase("Exit")) {
-            // Terminate program
-            portfolio.trySave();
-            System.exit(0);
+            exit();
+            return;
         }
 
         if (currentPanel != null) {
@@ -133,6 +233,217 @@ public class PortfolioFrame extends JFrame implements ActionListener {
         }
     }
 
+    /**
+     * Save the portfolio in the background and terminate the program once
+     * saved, unless the user cancels the save. The other operation running
+     * is cancelled, and the commands are disabled until the save ends, so
+     * nothing else can start and cancel it.
+     */
+    private void exit() {
+        if (cancellableTask != null) {
+            cancellableTask.cancel(true);
+            cancellableTask = null;
+        }
+        setCommandsEnabled(false);
+        showStatus("Saving...");
+
+        saveTask = new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() {
+                return portfolio.trySave();
+            }
+
+            @Override
+            protected void done() {
+                saveTask = null;
+                if (isCancelled()) {
+                    clearStatus();
+                    setCommandsEnabled(true);
+                    return;
+                }
+
+                try {
+                    if (!get()) {
+                        JOptionPane.showMessageDialog(PortfolioFrame.this,
+                                "The portfolio could not be saved, the changes are kept in its journal.");
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    // Exiting anyway
+                }
+                System.exit(0);
+            }
+        };
+        saveTask.execute();
+    }
+
+    /**
+     * Enable or disable the commands menu and the buttons of every panel.
+     *
+     * @param enabled If the commands can be used
+     */
+    private void setCommandsEnabled(boolean enabled) {
+        commandsMenu.setEnabled(enabled);
+        for (JPanel panel : panels.values()) {
+            setButtonsEnabled(panel, enabled);
+        }
+    }
+
+    /**
+     * Enable or disable the buttons inside a component.
+     *
+     * @param component Component to look into
+     * @param enabled If the buttons can be used
+     */
+    private static void setButtonsEnabled(Component component, boolean enabled) {
+        if (component instanceof AbstractButton) {
+            component.setEnabled(enabled);
+        } else if (component instanceof Container) {
+            for (Component child : ((Container) component).getComponents()) {
+                setButtonsEnabled(child, enabled);
+            }
+        }
+    }
+
+    /**
+     * Show an operation running in the background in the status bar.
+     *
+     * @param status Description of the operation
+     */
+    private void showStatus(String status) {
+        statusLabel.setText(status);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(true);
+    }
+
+    /**
+     * Clear the status bar once the operation has ended.
+     */
+    private void clearStatus() {
+        statusLabel.setText(" ");
+        progressBar.setVisible(false);
+        cancelButton.setEnabled(false);
+    }
+
+    /**
+     * Run an operation in the background, showing its progress in the status
+     * bar and letting the user cancel it. Starting another one cancels the
+     * previous one.
+     *
+     * @param task Operation to run
+     * @param status Description of the operation
+     */
+    private void runCancellable(SwingWorker<?, ?> task, String status) {
+        if (cancellableTask != null) {
+            cancellableTask.cancel(true);
+        }
+
+        cancellableTask = task;
+        showStatus(status);
+
+        task.addPropertyChangeListener(event -> {
+            if (cancellableTask != task) {
+                return;
+            }
+
+            if (event.getPropertyName().equals("progress")) {
+                progressBar.setIndeterminate(false);
+                progressBar.setValue((Integer) event.getNewValue());
+            } else if (task.isDone()) {
+                cancellableTask = null;
+                clearStatus();
+            }
+        });
+        task.execute();
+    }
+
+    /**
+     * Create a sortable table of holdings, formatting amounts like the rest
+     * of the window.
+     *
+     * @param model Rows of the table
+     * @return Table
+     */
+    private static JTable createHoldingTable(HoldingTableModel model) {
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.setDefaultRenderer(Double.class, new DefaultTableCellRenderer() {
+
+            /**
+             * Reused buffer for the amounts.
+             */
+            private final StringBuilder text = new StringBuilder();
+
+            @Override
+            protected void setValue(Object value) {
+                setHorizontalAlignment(RIGHT);
+                text.setLength(0);
+                if (value != null) {
+                    InvestmentFormatter.appendAmount(text.append('$'), (Double) value);
+                }
+                setText(text.toString());
+            }
+        });
+        return table;
+    }
+
+    /**
+     * Operation on the portfolio that runs in the background and then shows
+     * its messages in a message log, followed by its error if it failed.
+     */
+    private abstract class MessageTask extends SwingWorker<Void, Void> {
+
+        /**
+         * Message log receiving the messages.
+         */
+        private final JTextArea messagesField;
+
+        /**
+         * Messages collected in the background.
+         */
+        private final StringBuilder messages = new StringBuilder();
+
+        /**
+         * Initialize the task.
+         *
+         * @param messagesField Message log receiving the messages
+         */
+        MessageTask(JTextArea messagesField) {
+            this.messagesField = messagesField;
+        }
+
+        /**
+         * Run the operation in the background.
+         *
+         * @param messages Receives the messages to show
+         * @throws Exception If the operation fails
+         */
+        protected abstract void run(Consumer<String> messages) throws Exception;
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            run(message -> messages.append(message).append("\n"));
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            String error = null;
+            try {
+                get();
+            } catch (ExecutionException e) {
+                error = e.getCause().getMessage();
+            } catch (InterruptedException | CancellationException e) {
+                error = "Cancelled.";
+            }
+
+            messagesField.append(messages.toString());
+            if (error != null) {
+                messagesField.append("Error: " + error + "\n");
+            }
+        }
+    }
+
     /**
      * Panel that holds the user interface components for buying investments.
      */
@@ -226,92 +537,6 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             messagesField.append("Ok: Fields has been cleared.\n");
         }
 
-        /**
-         * Purchase a stock.
-         */
-        private void buyStock() {
-            // Get a symbol
-            String symbol = symbolField.getText().trim();
-
-            // Get the quantity
-            int quantity;
-
-            try {
-                quantity = Integer.parseInt(quantityField.getText().trim());
-            } catch (Exception e) {
-                messagesField.append("Error: Quantity should be a whole number.\n");
-                return;
-            }
-
-            Stock stock = portfolio.findStock(symbol);
-
-            if (stock == null) {
-                // Case for a new stock
-                messagesField.append("New stock detected...\n");
-
-                // Get the name
-                String name = nameField.getText().trim();
-
-                // Get the price
-                double price;
-
-                try {
-                    price = Double.parseDouble(priceField.getText().trim());
-                } catch (Exception e) {
-                    messagesField.append("Error: Price should be numeric.\n");
-                    return;
-                }
-
-                // Add to list
-                portfolio.addToList(new Stock(symbol, name, quantity, price));
-                messagesField.append("Ok: Stock has been added to portfolio.\n");
-            } else {
-                // Case for existing stock
-                messagesField.append("Existing stock detected. Name and price fields are ignored.\n");
-
-                stock.add(quantity);
-                messagesField.append("Ok: Stock quantity has been updated.\n");
-            }
-        }
-
-        /**
-         * Purchase a mutual fund.
-         */
-        private void buyMutualFund() {
-            // Get a symbol
-            String symbol = symbolField.getText().trim();
-
-            // Get the quantity
-            int quantity;
-
-            try {
-                quantity = Integer.parseInt(quantityField.getText().trim());
-            } catch (Exception e) {
-                messagesField.append("Error: Quantity should be a whole number.\n");
-                return;
-            }
-
-            MutualFund fund = portfolio.findMutualFund(symbol);
-
-            if (fund == null) {
-                // Case for a new fund
-                messagesField.append("New mutual fund detected...\n");
-
-                String name = nameField.getText().trim();
-                double price = Double.parseDouble(priceField.getText().trim());
-
-                // Add to list
-                portfolio.addToList(new Stock(symbol, name, quantity, price));
-                messagesField.append("Ok: Mutual fund has been added to portfolio.\n");
-            } else {
-                // Case for existing fund
-                messagesField.append("Existing mutual fund detected. Name and price fields are ignored.\n");
-
-                fund.add(quantity);
-                messagesField.append("Ok: Mutual fund quantity has been updated.\n");
-            }
-        }
-
         /**
          * Handle the buying of investment.
          *
@@ -322,15 +547,23 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             if (e.getActionCommand().equalsIgnoreCase("Reset")) {
                 reset();
             } else if (e.getActionCommand().equalsIgnoreCase("Buy")) {
-                try {
-                    if (typeField.getSelectedItem().equals("Stock")) {
-                        buyStock();
-                    } else if (typeField.getSelectedItem().equals("Mutual Fund")) {
-                        buyMutualFund();
+                // Read the fields here, the portfolio is changed in the background
+                boolean isStock = typeField.getSelectedItem().equals("Stock");
+                String symbol = symbolField.getText().trim();
+                String name = nameField.getText().trim();
+                String quantityText = quantityField.getText().trim();
+                String priceText = priceField.getText().trim();
+
+                new MessageTask(messagesField) {
+                    @Override
+                    protected void run(Consumer<String> messages) {
+                        if (isStock) {
+                            commands.buyStock(symbol, name, quantityText, priceText, messages);
+                        } else {
+                            commands.buyMutualFund(symbol, name, quantityText, priceText, messages);
+                        }
                     }
-                } catch (Exception ex) {
-                    messagesField.append("Error: " + ex.getMessage() + "\n");
-                }
+                }.execute();
             }
         }
     }
@@ -413,43 +646,6 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             messagesField.append("Ok: Fields cleared.\n");
         }
 
-        /**
-         * Sell an investment
-         */
-        private void sell() {
-            // Get a symbol
-            String symbol = symbolField.getText().trim();
-
-            // Get the quantity
-            int quantity;
-
-            try {
-                quantity = Integer.parseInt(quantityField.getText().trim());
-            } catch (Exception e) {
-                messagesField.append("Error: Quantity should be a whole number.\n");
-                return;
-            }
-
-            // Find the investment
-            Investment investment = portfolio.findStock(symbol);
-
-            if (investment == null) {
-                investment = portfolio.findMutualFund(symbol);
-            }
-
-            if (investment == null) {
-                messagesField.append("Error: Investment does not exist.\n");
-                return;
-            }
-
-            // Do sell the mentioned quantity
-            messagesField.append("Ok: Realized Gain/Loss: $" + decimalFormat.format(investment.reduce(quantity)) + "\n");
-
-            if (investment.getQuantity() == 0) {
-                portfolio.removeFromList(investment);
-            }
-        }
-
         /**
          * Handle the actions.
          *
@@ -460,11 +656,15 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             if (e.getActionCommand().equalsIgnoreCase("Reset")) {
                 reset();
             } else if (e.getActionCommand().equalsIgnoreCase("Sell")) {
-                try {
-                    sell();
-                } catch (Exception ex) {
-                    messagesField.append("Error: " + ex.getMessage() + "\n");
-                }
+                String symbol = symbolField.getText().trim();
+                String quantityText = quantityField.getText().trim();
+
+                new MessageTask(messagesField) {
+                    @Override
+                    protected void run(Consumer<String> messages) {
+                        commands.sell(symbol, quantityText, messages);
+                    }
+                }.execute();
             }
         }
     }
@@ -495,9 +695,9 @@ public class PortfolioFrame extends JFrame implements ActionListener {
         private JTextArea messagesField = new JTextArea();
 
         /**
-         * Investments for viewing
+         * Snapshot of the investments for viewing
          */
-        private ArrayList<Investment> investments;
+        private PortfolioSnapshot investments;
 
         /**
          * Current index of investment being viewed
@@ -559,7 +759,7 @@ public class PortfolioFrame extends JFrame implements ActionListener {
          * Initialize the investments for viewing
          */
         public void initialize() {
-            investments = portfolio.getInvestments();
+            investments = portfolio.getSnapshot();
 
             if (investments.isEmpty()) {
                 currentIndex = -1;
@@ -574,10 +774,10 @@ public class PortfolioFrame extends JFrame implements ActionListener {
          * Display the current investment
          */
         private void showInvestment() {
-            Investment investment = investments.get(currentIndex);
-            symbolField.setText(investment.getSymbol());
-            nameField.setText(investment.getName());
-            priceField.setText(investment.getPrice() + "");
+            Holding holding = investments.get(currentIndex);
+            symbolField.setText(holding.getSymbol());
+            nameField.setText(holding.getName());
+            priceField.setText(holding.getPrice() + "");
         }
 
         /**
@@ -621,13 +821,50 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             }
 
             // Do update
-            try {
-                Investment investment = investments.get(currentIndex);
-                investment.setPrice(price);
-                messagesField.append("Ok: Price has been updated.\n");
-            } catch (Exception e) {
-                messagesField.append("Error: " + e.getMessage() + "\n");
+            Holding holding = investments.get(currentIndex);
+            new MessageTask(messagesField) {
+
+                /**
+                 * Whether the price was updated.
+                 */
+                private boolean updated;
+
+                @Override
+                protected void run(Consumer<String> messages) {
+                    Investment investment = portfolio.getInvestment(holding);
+                    if (investment == null) {
+                        messages.accept("Error: Investment was sold meanwhile.");
+                        return;
+                    }
+                    investment.setPrice(price);
+                    updated = true;
+                    messages.accept("Ok: Price has been updated.");
+                }
+
+                @Override
+                protected void done() {
+                    super.done();
+                    if (updated) {
+                        refresh();
+                    }
+                }
+            }.execute();
+        }
+
+        /**
+         * Take the latest snapshot, so the new price shows when going back to
+         * the investment, and stay at the current index.
+         */
+        private void refresh() {
+            investments = portfolio.getSnapshot();
+
+            if (investments.isEmpty()) {
+                currentIndex = -1;
+                return;
             }
+
+            currentIndex = Math.min(currentIndex, investments.size() - 1);
+            showInvestment();
         }
 
         /**
@@ -658,9 +895,9 @@ public class PortfolioFrame extends JFrame implements ActionListener {
         private JTextField totalGainField = new JTextField(20);
 
         /**
-         * Field for displaying individual gains.
+         * Rows of the individual gains.
          */
-        private JTextArea individualGainsField = new JTextArea();
+        private HoldingTableModel individualGainsModel = new HoldingTableModel();
 
         /**
          * Initialize the user interface.
@@ -680,23 +917,36 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             JPanel individualGainsPanel = new JPanel(new BorderLayout());
             individualGainsPanel.setPreferredSize(new Dimension(0, 300));
             individualGainsPanel.setBorder(BorderFactory.createTitledBorder("Individual Gains"));
-            individualGainsPanel.add(BorderLayout.CENTER, new JScrollPane(individualGainsField));
-            individualGainsField.setEditable(false);
+            individualGainsPanel.add(BorderLayout.CENTER, new JScrollPane(createHoldingTable(individualGainsModel)));
 
             add(BorderLayout.SOUTH, individualGainsPanel);
         }
 
+        /**
+         * Show the total gain of the latest snapshot.
+         */
+        public void updateTotal() {
+            updateTotal(portfolio.getSnapshot());
+        }
+
+        /**
+         * Show the total gain of a snapshot.
+         *
+         * @param snapshot Snapshot of the portfolio
+         */
+        private void updateTotal(PortfolioSnapshot snapshot) {
+            totalGainField.setText("$" + InvestmentFormatter.formatAmount(snapshot.getTotals().getUnrealizedGainOrLoss()));
+        }
+
         // Update the fields
         public void update() {
-            individualGainsField.setText("");
-            double unrealizedGainsOrLosses = 0;
+            long start = PortfolioMetrics.start();
 
-            for (Investment investment : portfolio.getInvestments()) {
-                individualGainsField.append(investment.toString() + "\n\n");
-                unrealizedGainsOrLosses += investment.computeUnrealizedGainOrLoss();
-            }
-
-            totalGainField.setText("$" + decimalFormat.format(unrealizedGainsOrLosses));
+            // The rows are read from the snapshot as they are shown
+            PortfolioSnapshot snapshot = portfolio.getSnapshot();
+            updateTotal(snapshot);
+            individualGainsModel.setSnapshot(snapshot);
+            PortfolioMetrics.GAINS.stop(start);
         }
     }
 
@@ -726,9 +976,14 @@ public class PortfolioFrame extends JFrame implements ActionListener {
         private JTextField highPriceField = new JTextField(10);
 
         /**
-         * Area for displaying search results.
+         * Outcome of the last search.
+         */
+        private JLabel resultsLabel = new JLabel(" ");
+
+        /**
+         * Rows of the search results.
          */
-        private JTextArea resultsField = new JTextArea();
+        private HoldingTableModel resultsModel = new HoldingTableModel();
 
         /**
          * Initialize the user interface
@@ -769,8 +1024,8 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             JPanel resultsPanel = new JPanel(new BorderLayout());
             resultsPanel.setPreferredSize(new Dimension(0, 200));
             resultsPanel.setBorder(BorderFactory.createTitledBorder("Search Results"));
-            resultsPanel.add(BorderLayout.CENTER, new JScrollPane(resultsField));
-            resultsField.setEditable(false);
+            resultsPanel.add(BorderLayout.NORTH, resultsLabel);
+            resultsPanel.add(BorderLayout.CENTER, new JScrollPane(createHoldingTable(resultsModel)));
 
             add(BorderLayout.SOUTH, resultsPanel);
         }
@@ -785,7 +1040,8 @@ public class PortfolioFrame extends JFrame implements ActionListener {
                 field.setText("");
             }
 
-            resultsField.setText("");
+            resultsLabel.setText(" ");
+            resultsModel.setHoldings(new ArrayList<>());
         }
 
         /**
@@ -796,51 +1052,47 @@ public class PortfolioFrame extends JFrame implements ActionListener {
             String symbol = symbolField.getText().trim();
             String keywords = keywordsField.getText().trim();
 
-            // Get the low price if provided
-            double lowPrice = 0;
+            InvestmentQuery query;
 
-            if (!lowPriceField.getText().trim().isEmpty()) {
-                try {
-                    lowPrice = Double.parseDouble(lowPriceField.getText().trim());
+            try {
+                query = PortfolioCommands.parseQuery(symbol, keywords, lowPriceField.getText().trim(), highPriceField.getText().trim());
+            } catch (IllegalArgumentException e) {
+                resultsLabel.setText(e.getMessage());
+                return;
+            }
 
-                    if (lowPrice < 0) {
-                        throw new Exception();
+            // Perform search in the background
+            resultsLabel.setText(" ");
+            resultsModel.setHoldings(new ArrayList<>());
+
+            runCancellable(new SwingWorker<List<Holding>, Void>() {
+                @Override
+                protected List<Holding> doInBackground() {
+                    ArrayList<Investment> investments = portfolio.search(query);
+
+                    List<Holding> holdings = new ArrayList<>(investments.size());
+                    for (Investment investment : investments) {
+                        if (isCancelled()) {
+                            return null;
+                        }
+                        holdings.add(new Holding(investment));
                     }
-                } catch (Exception e) {
-                    resultsField.setText("Low price should be numeric and positive.\n");
-                    return;
+                    return holdings;
                 }
-            }
-
-            // Get the high price if provided
-            double highPrice = Double.MAX_VALUE;
 
-            if (!highPriceField.getText().trim().isEmpty()) {
-                try {
-                    highPrice = Double.parseDouble(highPriceField.getText().trim());
-
-                    if (highPrice < 0 || highPrice < lowPrice) {
-                        throw new Exception();
+                @Override
+                protected void done() {
+                    try {
+                        List<Holding> holdings = get();
+                        resultsLabel.setText(holdings.isEmpty() ? "Search returned an empty result." : holdings.size() + " investments found.");
+                        resultsModel.setHoldings(holdings);
+                    } catch (ExecutionException e) {
+                        resultsLabel.setText("Error: " + e.getCause().getMessage());
+                    } catch (InterruptedException | CancellationException e) {
+                        resultsLabel.setText("Search cancelled.");
                     }
-                } catch (Exception e) {
-                    resultsField.setText("High price field should be numeric and positive and higher than the low price.\n");
-                    return;
                 }
-            }
-            
-            // Perform search
-            ArrayList<Investment> investments = portfolio.searchInvestments(symbol, keywords, lowPrice, highPrice);
-            
-            if(investments.isEmpty()) {
-                resultsField.setText("Search returned an empty result.\n");
-                return;
-            }
-            
-            resultsField.setText("");
-            
-            for(Investment investment : investments) {
-                resultsField.append(investment.toString() + "\n\n");
-            }
+            }, "Searching...");
         }
 
         /**
@@ -0,0 +1,342 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes large synthetic portfolio files in the text format read by
+ * Portfolio, for sizing and testing. Records are written one at a time, so
+ * memory use does not depend on the number of investments, and the same
+ * seed always produces the same file.
+ *
+ * Name keywords are drawn from a vocabulary with Zipfian frequencies, so a
+ * few keywords are shared by many investments as in real names. Prices follow
+ * a log-normal or a uniform distribution.
+ *
+ * Usage: java ePortfolio.PortfolioGenerator output count [-seed n]
+ * [-funds fraction] [-vocabulary words] [-zipf exponent] [-keywords n]
+ * [-price lognormal:median:sigma | uniform:low:high] [-quantity max]
+ *
+ * @author Me
+ */
+public final class PortfolioGenerator {
+
+    /**
+     * Syllables the vocabulary words are made of.
+     */
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "ta", "vo", "zi", "ber", "con",
+        "dal", "fin", "gro", "hel", "ist", "jun", "mar", "nor", "pac", "quo", "sol", "tri", "uni", "wex"};
+
+    /**
+     * Source of every random choice.
+     */
+    private final Random random;
+
+    /**
+     * Share of mutual funds among the investments.
+     */
+    private double fundShare = 1.0 / 3;
+
+    /**
+     * Number of keywords in every name.
+     */
+    private int keywords = 3;
+
+    /**
+     * Cumulative Zipfian probabilities of the vocabulary words.
+     */
+    private double[] wordDistribution;
+
+    /**
+     * Words of the vocabulary, in decreasing frequency.
+     */
+    private String[] words;
+
+    /**
+     * Whether prices are log-normal rather than uniform.
+     */
+    private boolean logNormalPrices = true;
+
+    /**
+     * Parameters of the price distribution: median and sigma when log-normal,
+     * lowest and highest when uniform.
+     */
+    private double priceA = 50;
+    private double priceB = 1;
+
+    /**
+     * Largest quantity of an investment.
+     */
+    private int maxQuantity = 1000;
+
+    /**
+     * Initialize a generator.
+     *
+     * @param seed Seed of the random choices
+     */
+    PortfolioGenerator(long seed) {
+        random = new Random(seed);
+        setVocabulary(10000, 1.0);
+    }
+
+    /**
+     * Set the share of mutual funds.
+     *
+     * @param fundShare Share from 0 to 1
+     */
+    void setFundShare(double fundShare) {
+        if (fundShare < 0 || fundShare > 1) {
+            throw new IllegalArgumentException("Fund share should be between 0 and 1.");
+        }
+        this.fundShare = fundShare;
+    }
+
+    /**
+     * Set the number of keywords in every name.
+     *
+     * @param keywords Number of keywords
+     */
+    void setKeywords(int keywords) {
+        if (keywords <= 0) {
+            throw new IllegalArgumentException("Positive number of keywords is required.");
+        }
+        this.keywords = keywords;
+    }
+
+    /**
+     * Set the vocabulary of the names. The k-th most frequent word is drawn
+     * with a probability proportional to 1 / k^exponent.
+     *
+     * @param size Number of distinct words
+     * @param exponent Zipf exponent, 0 for uniform frequencies
+     */
+    void setVocabulary(int size, double exponent) {
+        if (size <= 0 || exponent < 0) {
+            throw new IllegalArgumentException("Positive vocabulary and exponent are required.");
+        }
+
+        words = new String[size];
+        wordDistribution = new double[size];
+        double total = 0;
+        for (int k = 0; k < size; k++) {
+            words[k] = word(k);
+            total += 1 / Math.pow(k + 1, exponent);
+            wordDistribution[k] = total;
+        }
+        for (int k = 0; k < size; k++) {
+            wordDistribution[k] /= total;
+        }
+    }
+
+    /**
+     * Set a log-normal price distribution.
+     *
+     * @param median Median price
+     * @param sigma Standard deviation of the logarithm of the price
+     */
+    void setLogNormalPrices(double median, double sigma) {
+        if (median <= 0 || sigma < 0) {
+            throw new IllegalArgumentException("Positive median and sigma are required.");
+        }
+        logNormalPrices = true;
+        priceA = median;
+        priceB = sigma;
+    }
+
+    /**
+     * Set a uniform price distribution.
+     *
+     * @param low Lowest price
+     * @param high Highest price
+     */
+    void setUniformPrices(double low, double high) {
+        if (low <= 0 || high < low) {
+            throw new IllegalArgumentException("Positive price range is required.");
+        }
+        logNormalPrices = false;
+        priceA = low;
+        priceB = high;
+    }
+
+    /**
+     * Set the largest quantity of an investment.
+     *
+     * @param maxQuantity Largest quantity
+     */
+    void setMaxQuantity(int maxQuantity) {
+        if (maxQuantity <= 0) {
+            throw new IllegalArgumentException("Positive quantity is required.");
+        }
+        this.maxQuantity = maxQuantity;
+    }
+
+    /**
+     * Write the investments.
+     *
+     * @param writer Destination, expected to be buffered
+     * @param count Number of investments
+     * @throws IOException If writing fails
+     */
+    void generate(Writer writer, long count) throws IOException {
+        StringBuilder record = new StringBuilder(256);
+        StringBuilder name = new StringBuilder(64);
+
+        for (long i = 0; i < count; i++) {
+            name.setLength(0);
+            for (int k = 0; k < keywords; k++) {
+                if (k > 0) {
+                    name.append(' ');
+                }
+                String word = words[nextWord()];
+                name.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            }
+
+            int quantity = 1 + random.nextInt(maxQuantity);
+            double price = Math.max(0.01, Math.round(nextPrice() * 100) / 100.0);
+            // Bought at a price somewhat away from the current one
+            double bookValue = Math.round(quantity * price * Math.exp(random.nextGaussian() * 0.2) * 100) / 100.0;
+            String symbol = symbol(i);
+
+            Investment investment;
+            if (random.nextDouble() < fundShare) {
+                investment = new MutualFund(symbol, name.toString(), quantity, price, bookValue);
+            } else {
+                investment = new Stock(symbol, name.toString(), quantity, price, bookValue);
+            }
+
+            record.setLength(0);
+            PortfolioFileWriter.appendRecord(record, investment);
+            writer.append(record);
+        }
+    }
+
+    /**
+     * Draw the position of a vocabulary word.
+     *
+     * @return Position in words
+     */
+    private int nextWord() {
+        int position = Arrays.binarySearch(wordDistribution, random.nextDouble());
+        return Math.min(position >= 0 ? position : -position - 1, words.length - 1);
+    }
+
+    /**
+     * Draw a price.
+     *
+     * @return Price
+     */
+    private double nextPrice() {
+        if (logNormalPrices) {
+            return priceA * Math.exp(random.nextGaussian() * priceB);
+        }
+        return priceA + random.nextDouble() * (priceB - priceA);
+    }
+
+    /**
+     * Return the vocabulary word of a position, made of syllables.
+     *
+     * @param position Position of the word
+     * @return Word
+     */
+    private static String word(int position) {
+        StringBuilder word = new StringBuilder();
+        int rest = position;
+        do {
+            word.append(SYLLABLES[rest % SYLLABLES.length]);
+            rest /= SYLLABLES.length;
+        } while (rest > 0);
+        return word.toString();
+    }
+
+    /**
+     * Return the unique symbol of an investment, upper case letters counted
+     * like spreadsheet columns.
+     *
+     * @param index Position of the investment
+     * @return Symbol
+     */
+    private static String symbol(long index) {
+        char[] letters = new char[14];
+        int position = letters.length;
+        long rest = index;
+        do {
+            letters[--position] = (char) ('A' + rest % 26);
+            rest = rest / 26 - 1;
+        } while (rest >= 0);
+        return new String(letters, position, letters.length - position);
+    }
+
+    /**
+     * Generate a portfolio file from the command line.
+     *
+     * @param args Output file, number of investments and options
+     */
+    public static void main(String[] args) {
+        Locale.setDefault(Locale.US);
+        if (args.length < 2) {
+            System.err.println("Usage: java ePortfolio.PortfolioGenerator output count [-seed n] [-funds fraction]"
+                    + " [-vocabulary words] [-zipf exponent] [-keywords n]"
+                    + " [-price lognormal:median:sigma | uniform:low:high] [-quantity max]");
+            return;
+        }
+
+        try {
+            String output = args[0];
+            long count = Long.parseLong(args[1]);
+            long seed = 1;
+            int vocabulary = 10000;
+            double exponent = 1.0;
+            String[] options = Arrays.copyOfRange(args, 2, args.length);
+
+            for (int i = 0; i + 1 < options.length; i += 2) {
+                if (options[i].equals("-seed")) {
+                    seed = Long.parseLong(options[i + 1]);
+                } else if (options[i].equals("-vocabulary")) {
+                    vocabulary = Integer.parseInt(options[i + 1]);
+                } else if (options[i].equals("-zipf")) {
+                    exponent = Double.parseDouble(options[i + 1]);
+                }
+            }
+
+            PortfolioGenerator generator = new PortfolioGenerator(seed);
+            generator.setVocabulary(vocabulary, exponent);
+            for (int i = 0; i + 1 < options.length; i += 2) {
+                String value = options[i + 1];
+                if (options[i].equals("-funds")) {
+                    generator.setFundShare(Double.parseDouble(value));
+                } else if (options[i].equals("-keywords")) {
+                    generator.setKeywords(Integer.parseInt(value));
+                } else if (options[i].equals("-quantity")) {
+                    generator.setMaxQuantity(Integer.parseInt(value));
+                } else if (options[i].equals("-price")) {
+                    String[] parts = value.split(":");
+                    if (parts.length != 3) {
+                        throw new IllegalArgumentException("Price should be lognormal:median:sigma or uniform:low:high.");
+                    } else if (parts[0].equals("lognormal")) {
+                        generator.setLogNormalPrices(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    } else if (parts[0].equals("uniform")) {
+                        generator.setUniformPrices(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    } else {
+                        throw new IllegalArgumentException("Unknown price distribution '" + parts[0] + "'.");
+                    }
+                } else if (!options[i].equals("-seed") && !options[i].equals("-vocabulary") && !options[i].equals("-zipf")) {
+                    throw new IllegalArgumentException("Unknown option '" + options[i] + "'.");
+                }
+            }
+
+            try (Writer writer = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+                generator.generate(writer, count);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write file '" + args[0] + "'");
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+}
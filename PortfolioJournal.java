@@ -0,0 +1,383 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only journal of the changes made to a portfolio since its file was
+ * last saved. Every record holds the complete state of one investment, so
+ * replaying a record more than once gives the same result.
+ *
+ * A record is one line of tab-separated fields. Backslashes, tabs and line
+ * breaks in the symbol and the name are escaped with a backslash, so any
+ * name replays as written.
+ *
+ * Records are written to the file as they are made but never forced to the
+ * disk: they survive the process crashing, not the machine losing power.
+ *
+ * @author Me
+ */
+final class PortfolioJournal {
+
+    /**
+     * Applies the records of a journal being replayed.
+     */
+    interface Replay {
+
+        /**
+         * Create the investment or overwrite its state.
+         *
+         * @param isStock If the investment is a stock
+         * @param symbol Symbol
+         * @param name Name
+         * @param quantity Quantity
+         * @param price Price
+         * @param bookValue Book value
+         */
+        void update(boolean isStock, String symbol, String name, int quantity, double price, double bookValue);
+
+        /**
+         * Remove the investment if present.
+         *
+         * @param isStock If the investment is a stock
+         * @param symbol Symbol
+         */
+        void remove(boolean isStock, String symbol);
+    }
+
+    /**
+     * File receiving the new records.
+     */
+    private final Path path;
+
+    /**
+     * File holding the records of a compaction in progress.
+     */
+    private final Path compactingPath;
+
+    /**
+     * Channel appending to the journal file, opened on the first record.
+     */
+    private FileChannel channel;
+
+    /**
+     * Number of records in the journal file.
+     */
+    private int records;
+
+    /**
+     * Size in bytes from which a batch of records is written out.
+     */
+    private static final int BATCH_BYTES = 1 << 16;
+
+    /**
+     * Reused buffer for encoding records.
+     */
+    private final StringBuilder record = new StringBuilder(128);
+
+    /**
+     * Initialize the journal of a portfolio file.
+     *
+     * @param fileName Name of the portfolio file
+     */
+    PortfolioJournal(String fileName) {
+        path = Paths.get(fileName + ".journal");
+        compactingPath = Paths.get(fileName + ".journal.old");
+    }
+
+    /**
+     * Return the number of records written since the journal was last reset.
+     *
+     * @return Number of records
+     */
+    int size() {
+        return records;
+    }
+
+    /**
+     * Replay the records left by an interrupted compaction and then the
+     * current ones. An incomplete last record left by a crash is dropped.
+     *
+     * @param replay Receives the records
+     * @throws IOException If a journal file cannot be read
+     */
+    void replay(Replay replay) throws IOException {
+        replay(compactingPath, replay);
+        records = replay(path, replay);
+    }
+
+    /**
+     * Replay the records of one journal file.
+     *
+     * @param file File to replay
+     * @param replay Receives the records
+     * @return Number of records replayed
+     * @throws IOException If the file cannot be read
+     */
+    private static int replay(Path file, Replay replay) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        String contents;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[1 << 16];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            contents = builder.toString();
+        }
+
+        // Cut off a record left incomplete by a crash before appending again
+        int complete = contents.lastIndexOf('\n') + 1;
+        if (complete < contents.length()) {
+            contents = contents.substring(0, complete);
+            try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncated.truncate(contents.getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+
+        int count = 0;
+        int lineStart = 0;
+        int lineEnd;
+        while ((lineEnd = contents.indexOf('\n', lineStart)) >= 0) {
+            String[] fields = contents.substring(lineStart, lineEnd).split("\t", 7);
+            lineStart = lineEnd + 1;
+
+            try {
+                boolean isStock = fields[1].equals("stock");
+                if (fields[0].equals("U") && fields.length == 7) {
+                    replay.update(isStock, unescape(fields[2]), unescape(fields[6]), Integer.parseInt(fields[3]),
+                            Double.parseDouble(fields[4]), Double.parseDouble(fields[5]));
+                } else if (fields[0].equals("R") && fields.length == 3) {
+                    replay.remove(isStock, unescape(fields[2]));
+                } else {
+                    throw new IllegalArgumentException("Unknown record");
+                }
+                count++;
+            } catch (RuntimeException e) {
+                System.err.println("Skipping invalid journal record in '" + file + "'");
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Undo the escaping of a field.
+     *
+     * @param field Field as written
+     * @return Text of the field
+     */
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+
+        StringBuilder text = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                text.append(c);
+                continue;
+            }
+
+            char escaped = field.charAt(++i);
+            if (escaped == 't') {
+                text.append('\t');
+            } else if (escaped == 'n') {
+                text.append('\n');
+            } else if (escaped == 'r') {
+                text.append('\r');
+            } else if (escaped == '\\') {
+                text.append('\\');
+            } else {
+                text.append(c).append(escaped);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Record the current state of an investment.
+     *
+     * @param investment Investment that was added or changed
+     */
+    void recordUpdate(Investment investment) {
+        record.setLength(0);
+        appendUpdate(investment);
+        append(1);
+    }
+
+    /**
+     * Record the current state of many investments, writing them in batches
+     * rather than one record at a time.
+     *
+     * @param changed Investments that were changed
+     */
+    void recordUpdates(Iterable<Investment> changed) {
+        record.setLength(0);
+        int pending = 0;
+        for (Investment investment : changed) {
+            appendUpdate(investment);
+            pending++;
+            if (record.length() >= BATCH_BYTES) {
+                append(pending);
+                record.setLength(0);
+                pending = 0;
+            }
+        }
+
+        if (pending > 0) {
+            append(pending);
+        }
+    }
+
+    /**
+     * Encode the update record of an investment at the end of the buffer.
+     *
+     * @param investment Investment to record
+     */
+    private void appendUpdate(Investment investment) {
+        record.append("U\t").append(investment instanceof Stock ? "stock" : "mutualfund")
+                .append('\t');
+        appendEscaped(investment.getSymbol());
+        record.append('\t').append(investment.getQuantity())
+                .append('\t').append(investment.getPrice())
+                .append('\t').append(investment.getBookValue())
+                .append('\t');
+        appendEscaped(investment.getName());
+        record.append('\n');
+    }
+
+    /**
+     * Append a field to the buffer, escaping the characters that separate
+     * fields and records.
+     *
+     * @param field Text of the field
+     */
+    private void appendEscaped(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\t') {
+                record.append("\\t");
+            } else if (c == '\n') {
+                record.append("\\n");
+            } else if (c == '\r') {
+                record.append("\\r");
+            } else if (c == '\\') {
+                record.append("\\\\");
+            } else {
+                record.append(c);
+            }
+        }
+    }
+
+    /**
+     * Record the removal of an investment.
+     *
+     * @param investment Investment that was removed
+     */
+    void recordRemove(Investment investment) {
+        record.setLength(0);
+        record.append("R\t").append(investment instanceof Stock ? "stock" : "mutualfund")
+                .append('\t');
+        appendEscaped(investment.getSymbol());
+        record.append('\n');
+        append(1);
+    }
+
+    /**
+     * Write the encoded records straight to the file, so they survive the
+     * process crashing. They are not forced to the disk.
+     *
+     * @param count Number of records in the buffer
+     */
+    private void append(int count) {
+        try {
+            // An interrupted writer closes the channel, so reopen it then
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(record.toString());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            records += count;
+        } catch (IOException e) {
+            System.err.println("Cannot write journal '" + path + "'");
+        }
+    }
+
+    /**
+     * Start a compaction by moving the current records aside, so that new
+     * records go to a fresh file while the snapshot is being written.
+     *
+     * @throws IOException If the journal cannot be moved
+     */
+    void beginCompaction() throws IOException {
+        close();
+        try {
+            if (Files.exists(compactingPath)) {
+                // A previous compaction failed, so its records are still needed
+                try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+                        FileChannel out = FileChannel.open(compactingPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    long position = 0;
+                    while (position < in.size()) {
+                        position += in.transferTo(position, in.size() - position, out);
+                    }
+                }
+                Files.delete(path);
+            } else {
+                Files.move(path, compactingPath);
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing was recorded yet
+        }
+        records = 0;
+    }
+
+    /**
+     * Finish a compaction once the snapshot holding its records is saved.
+     *
+     * @throws IOException If the records cannot be deleted
+     */
+    void endCompaction() throws IOException {
+        Files.deleteIfExists(compactingPath);
+    }
+
+    /**
+     * Drop every record once the whole portfolio has been saved.
+     *
+     * @throws IOException If the journal cannot be deleted
+     */
+    void reset() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(compactingPath);
+        records = 0;
+    }
+
+    /**
+     * Close the journal file.
+     *
+     * @throws IOException If closing fails
+     */
+    private void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
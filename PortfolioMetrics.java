@@ -0,0 +1,421 @@
+package ePortfolio;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counts and times the slow operations of the portfolio: loading, saving,
+ * searching, removing and computing the gains. Each operation has a counter
+ * and a latency histogram. Gauges report the number of investments and the
+ * size of the keyword index of the watched portfolio, and the tick rate,
+ * batches and apply latency of the watched price feed.
+ *
+ * Metrics are off until enable() is called. While off, timing an operation
+ * costs one read of a flag. Once on, the values can be read through JMX as
+ * ePortfolio:type=PortfolioMetrics and dumped to a file periodically.
+ *
+ * @author Me
+ */
+final class PortfolioMetrics {
+
+    /**
+     * Name of the MBean.
+     */
+    private static final String OBJECT_NAME = "ePortfolio:type=PortfolioMetrics";
+
+    /**
+     * Percentiles reported for every operation.
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * Counter and latency histogram of one operation.
+     *
+     * The histogram keeps 2^SUB_BITS buckets for every power of two of
+     * nanoseconds, so a recorded latency is known within about 3% whatever
+     * its magnitude, in a fixed amount of memory and without locking.
+     */
+    static final class Timer {
+
+        /**
+         * Buckets per power of two, as a power of two.
+         */
+        private static final int SUB_BITS = 5;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        /**
+         * Number of buckets, covering every positive long.
+         */
+        private static final int BUCKETS = SUB_COUNT * (Long.SIZE - SUB_BITS + 1);
+
+        /**
+         * Name of the operation.
+         */
+        private final String name;
+
+        /**
+         * Number of timed operations.
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Sum and largest of the latencies in nanoseconds.
+         */
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Number of latencies in each bucket.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        /**
+         * Initialize a timer.
+         *
+         * @param name Name of the operation
+         */
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Record the end of an operation.
+         *
+         * @param start Value returned by PortfolioMetrics.start() when the
+         * operation began
+         */
+        void stop(long start) {
+            if (start != 0) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Record one latency.
+         *
+         * @param nanos Latency in nanoseconds
+         */
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(bucketOf(nanos));
+        }
+
+        /**
+         * Return the bucket of a latency.
+         *
+         * @param nanos Latency in nanoseconds, not negative
+         * @return Position of the bucket
+         */
+        static int bucketOf(long nanos) {
+            if (nanos < SUB_COUNT) {
+                return (int) nanos;
+            }
+            int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+            return SUB_COUNT * (shift + 1) + (int) (nanos >>> shift) - SUB_COUNT;
+        }
+
+        /**
+         * Return the largest latency falling in a bucket.
+         *
+         * @param bucket Position of the bucket
+         * @return Latency in nanoseconds
+         */
+        static long highestOf(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int shift = bucket / SUB_COUNT - 1;
+            long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        /**
+         * Return the latency below which the given share of the operations
+         * completed.
+         *
+         * @param percentile Share in percent
+         * @return Latency in nanoseconds, 0 if nothing was recorded
+         */
+        long getPercentileNanos(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestOf(i), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        /**
+         * Add the values of this timer to a map.
+         *
+         * @param values Values by metric name
+         */
+        private void addValues(Map<String, Number> values) {
+            long operations = count.sum();
+            values.put(name + ".count", operations);
+            values.put(name + ".meanMillis", operations == 0 ? 0 : totalNanos.sum() / 1e6 / operations);
+            for (double percentile : PERCENTILES) {
+                String label = percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile).replace(".", "");
+                values.put(name + ".p" + label + "Millis", getPercentileNanos(percentile) / 1e6);
+            }
+            values.put(name + ".maxMillis", maxNanos.get() / 1e6);
+        }
+    }
+
+    /**
+     * Timed operations.
+     */
+    static final Timer LOAD = new Timer("load");
+    static final Timer SAVE = new Timer("save");
+    static final Timer SEARCH = new Timer("search");
+    static final Timer REMOVE = new Timer("remove");
+    static final Timer GAINS = new Timer("gains");
+
+    private static final Timer[] TIMERS = {LOAD, SAVE, SEARCH, REMOVE, GAINS};
+
+    /**
+     * Whether operations are timed.
+     */
+    private static volatile boolean enabled;
+
+    /**
+     * Portfolio the gauges report on, or null.
+     */
+    private static volatile Portfolio watched;
+
+    /**
+     * Price feed the gauges report on, or null.
+     */
+    private static volatile PriceFeed watchedFeed;
+
+    /**
+     * Writes the dump file, created on first use.
+     */
+    private static ScheduledExecutorService dumper;
+
+    private PortfolioMetrics() {
+    }
+
+    /**
+     * Return the time an operation starts, to pass to Timer.stop().
+     *
+     * @return Value of System.nanoTime(), or 0 if metrics are off
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Return whether operations are timed.
+     *
+     * @return If metrics are on
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing operations and publish the metrics through JMX.
+     */
+    static synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        enabled = true;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Cannot register metrics '" + OBJECT_NAME + "'");
+        }
+    }
+
+    /**
+     * Set the portfolio the gauges report on.
+     *
+     * @param portfolio Portfolio, or null for none
+     */
+    static void watch(Portfolio portfolio) {
+        watched = portfolio;
+    }
+
+    /**
+     * Set the price feed the gauges report on.
+     *
+     * @param feed Price feed, or null for none
+     */
+    static void watch(PriceFeed feed) {
+        watchedFeed = feed;
+    }
+
+    /**
+     * Write the metrics to a file periodically, replacing its contents each
+     * time.
+     *
+     * @param file File to write
+     * @param periodMillis Time between two dumps in milliseconds
+     */
+    static synchronized void dumpPeriodically(Path file, long periodMillis) {
+        if (dumper == null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "portfolio-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        dumper.scheduleAtFixedRate(() -> dump(file), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the metrics to a file, one "name = value" line per metric.
+     *
+     * @param file File to write
+     */
+    static void dump(Path file) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Number> value : getValues().entrySet()) {
+                    writer.write(value.getKey() + " = " + value.getValue());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write metrics file '" + file + "'");
+        }
+    }
+
+    /**
+     * Return the current value of every metric.
+     *
+     * @return Values by metric name, timers first and then gauges
+     */
+    static Map<String, Number> getValues() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Timer timer : TIMERS) {
+            timer.addValues(values);
+        }
+
+        Portfolio portfolio = watched;
+        long[] keysAndPostings = new long[2];
+        int positions = 0;
+        if (portfolio != null) {
+            PortfolioSnapshot snapshot = portfolio.getSnapshot();
+            positions = snapshot == null ? 0 : snapshot.size();
+            portfolio.getIndexStatistics(keysAndPostings);
+        }
+        values.put("positions", positions);
+        values.put("indexKeys", keysAndPostings[0]);
+        values.put("averagePostingLength", keysAndPostings[0] == 0 ? 0 : (double) keysAndPostings[1] / keysAndPostings[0]);
+
+        PriceFeed feed = watchedFeed;
+        values.put("feed.ticks", feed == null ? 0 : feed.getTicks());
+        values.put("feed.rejectedTicks", feed == null ? 0 : feed.getRejectedTicks());
+        values.put("feed.ticksPerSecond", feed == null ? 0 : feed.getTicksPerSecond());
+        values.put("feed.batches", feed == null ? 0 : feed.getBatches());
+        values.put("feed.meanApplyMillis", feed == null ? 0 : feed.getAverageApplyLatencyMillis());
+        values.put("feed.lastApplyMillis", feed == null ? 0 : feed.getLastApplyLatencyMillis());
+        values.put("feed.maxApplyMillis", feed == null ? 0 : feed.getMaxApplyLatencyMillis());
+        return values;
+    }
+
+    /**
+     * Exposes the metrics as read-only JMX attributes.
+     */
+    private static final class MetricsBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = getValues().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only.");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = getValues();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations.");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Number> value : getValues().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            }
+            return new MBeanInfo(PortfolioMetrics.class.getName(), "Portfolio operation metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
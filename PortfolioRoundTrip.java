@@ -0,0 +1,312 @@
+package ePortfolio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that saving and loading a portfolio gives back what was saved.
+ *
+ * Synthetic investments, including prices and book values next to half a
+ * cent and too large for the fast formatting, are written with
+ * PortfolioFileWriter. The output must match the former PrintWriter and
+ * String.format writer byte for byte. Parsing it back, through a stream and
+ * through a mapped file, must give every field as written, and writing the
+ * parsed investments again must give the same bytes. The binary format must
+ * give back every field exactly. The time of both text writers is printed.
+ *
+ * Usage: java ePortfolio.PortfolioRoundTrip [count] [seed]
+ *
+ * @author Me
+ */
+public final class PortfolioRoundTrip {
+
+    /**
+     * Default number of investments.
+     */
+    private static final int COUNT = 200000;
+
+    /**
+     * Words the synthetic names are made of, some of them beyond ASCII.
+     */
+    private static final String[] WORDS = {"global", "capital", "\u00e9nergie", "growth", "income", "bank", "tech",
+        "health", "index", "bond", "Z\u00fcrich", "fund", "pacific", "atlantic", "value", "total", "\u5e02\u573a", "systems"};
+
+    /**
+     * Number of mismatches printed before giving up on a check.
+     */
+    private static final int MAX_REPORTED = 10;
+
+    /**
+     * Number of mismatches found so far.
+     */
+    private static int mismatches;
+
+    private PortfolioRoundTrip() {
+    }
+
+    /**
+     * Run the checks.
+     *
+     * @param args Optional number of investments followed by an optional seed
+     * @throws IOException If the temporary file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Locale.setDefault(Locale.US);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : COUNT;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        List<Investment> investments = createInvestments(count, new Random(seed));
+
+        // Text written by both writers
+        long start = System.nanoTime();
+        String formatted = writeFormatted(investments);
+        long formattedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        String text = writeText(investments);
+        long textNanos = System.nanoTime() - start;
+        System.out.printf("write String.format %9.1f ms%n", formattedNanos / 1e6);
+        System.out.printf("write PortfolioFileWriter %9.1f ms%n", textNanos / 1e6);
+        if (!text.equals(formatted)) {
+            report("text differs from the String.format output at character " + firstDifference(text, formatted));
+        }
+
+        // Text parsed back from a stream and from a mapped file
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        List<Investment> parsed = new ArrayList<>(count);
+        PortfolioFileParser.read(new ByteArrayInputStream(bytes), parsed::add, PortfolioRoundTrip::report);
+        compareText("stream", investments, parsed);
+        if (!writeText(parsed).equals(text)) {
+            report("text written again differs");
+        }
+
+        Path file = Files.createTempFile("portfolio-round-trip", ".txt");
+        try {
+            Files.write(file, bytes);
+            List<Investment> mapped = new ArrayList<>(count);
+            try (FileChannel channel = FileChannel.open(file)) {
+                PortfolioFileParser.readMapped(channel, mapped::add, PortfolioRoundTrip::report);
+            }
+            compareText("mapped file", investments, mapped);
+        } finally {
+            Files.delete(file);
+        }
+
+        // Binary written and read back
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        PortfolioBinaryFormat.write(binary, investments);
+        List<Investment> read = new ArrayList<>(count);
+        PortfolioBinaryFormat.read(new ByteArrayInputStream(binary.toByteArray()), binary.size(), read::add, PortfolioRoundTrip::report);
+        compareBinary(investments, read);
+
+        System.out.println((mismatches == 0 ? "ok: " : "FAILED: ") + count + " investments, " + mismatches + " mismatches");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write investments the way the portfolio saved them before
+     * PortfolioFileWriter.
+     *
+     * @param investments Investments to write
+     * @return Text written
+     */
+    private static String writeFormatted(List<Investment> investments) {
+        StringWriter out = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(out)) {
+            for (Investment investment : investments) {
+                if (investment instanceof Stock) {
+                    writer.println("type = \"stock\"");
+                } else {
+                    writer.println("type = \"mutualfund\"");
+                }
+                writer.println("symbol = \"" + investment.getSymbol() + "\"");
+                writer.println("name = \"" + investment.getName() + "\"");
+                writer.println("quantity = \"" + investment.getQuantity() + "\"");
+                writer.println("price = \"" + String.format("%.2f", investment.getPrice()) + "\"");
+                writer.println("bookvalue = \"" + String.format("%.2f", investment.getBookValue()) + "\"");
+                writer.println();
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write investments with PortfolioFileWriter.
+     *
+     * @param investments Investments to write
+     * @return Text written
+     * @throws IOException If writing fails
+     */
+    private static String writeText(List<Investment> investments) throws IOException {
+        Writer out = new StringWriter();
+        PortfolioFileWriter.write(out, investments);
+        return out.toString();
+    }
+
+    /**
+     * Compare investments parsed from text with the ones written, the
+     * numbers as rounded to two decimals.
+     *
+     * @param source Where the text was parsed from
+     * @param written Investments written
+     * @param parsed Investments parsed back
+     */
+    private static void compareText(String source, List<Investment> written, List<Investment> parsed) {
+        if (parsed.size() != written.size()) {
+            report(source + ": " + parsed.size() + " investments parsed, " + written.size() + " written");
+            return;
+        }
+
+        for (int i = 0; i < written.size(); i++) {
+            Investment expected = written.get(i);
+            Investment actual = parsed.get(i);
+            if (!sameText(expected, actual)) {
+                report(source + ": investment " + i + " written as " + describe(expected) + ", parsed as " + describe(actual));
+            }
+        }
+    }
+
+    /**
+     * Return whether a parsed investment matches the one written.
+     *
+     * @param expected Investment written
+     * @param actual Investment parsed back
+     * @return If every field matches
+     */
+    private static boolean sameText(Investment expected, Investment actual) {
+        return sameFields(expected, actual)
+                && actual.getPrice() == Double.parseDouble(String.format("%.2f", expected.getPrice()))
+                && actual.getBookValue() == Double.parseDouble(String.format("%.2f", expected.getBookValue()));
+    }
+
+    /**
+     * Compare investments read from the binary format with the ones written.
+     *
+     * @param written Investments written
+     * @param read Investments read back
+     */
+    private static void compareBinary(List<Investment> written, List<Investment> read) {
+        if (read.size() != written.size()) {
+            report("binary: " + read.size() + " investments read, " + written.size() + " written");
+            return;
+        }
+
+        for (int i = 0; i < written.size(); i++) {
+            Investment expected = written.get(i);
+            Investment actual = read.get(i);
+            if (!sameFields(expected, actual) || actual.getPrice() != expected.getPrice() || actual.getBookValue() != expected.getBookValue()) {
+                report("binary: investment " + i + " written as " + describe(expected) + ", read as " + describe(actual));
+            }
+        }
+    }
+
+    /**
+     * Return whether two investments have the same type, symbol, name and
+     * quantity.
+     *
+     * @param expected Investment written
+     * @param actual Investment read back
+     * @return If those fields match
+     */
+    private static boolean sameFields(Investment expected, Investment actual) {
+        return expected.getClass() == actual.getClass()
+                && expected.getSymbol().equals(actual.getSymbol())
+                && expected.getName().equals(actual.getName())
+                && expected.getQuantity() == actual.getQuantity();
+    }
+
+    /**
+     * Describe an investment with its exact numbers.
+     *
+     * @param investment Investment
+     * @return Description
+     */
+    private static String describe(Investment investment) {
+        return investment.getClass().getSimpleName() + " " + investment.getSymbol() + " \"" + investment.getName() + "\" "
+                + investment.getQuantity() + " " + investment.getPrice() + " " + investment.getBookValue();
+    }
+
+    /**
+     * Print a mismatch, or a record skipped while parsing.
+     *
+     * @param message Description
+     */
+    private static void report(String message) {
+        if (++mismatches <= MAX_REPORTED) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Return the position of the first character differing in two strings.
+     *
+     * @param first First string
+     * @param second Second string
+     * @return Position
+     */
+    private static int firstDifference(String first, String second) {
+        int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            if (first.charAt(i) != second.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Create synthetic investments, two stocks for every mutual fund. One in
+     * four numbers sits next to half a cent and one in a thousand is too
+     * large for the fast formatting.
+     *
+     * @param count Number of investments
+     * @param random Source of the values
+     * @return Investments
+     */
+    private static List<Investment> createInvestments(int count, Random random) {
+        List<Investment> investments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            int quantity = 1 + random.nextInt(100000);
+            double price = randomAmount(random);
+            double bookValue = randomAmount(random);
+            String symbol = Integer.toString(random.nextInt(), 36).replace('-', 'X') + i;
+            if (i % 3 == 2) {
+                investments.add(new MutualFund("F" + symbol, name, quantity, price, bookValue));
+            } else {
+                investments.add(new Stock("S" + symbol, name, quantity, price, bookValue));
+            }
+        }
+        return investments;
+    }
+
+    /**
+     * Return an amount of at least a cent, rounded to whole cents or not.
+     *
+     * @param random Source of the value
+     * @return Amount
+     */
+    private static double randomAmount(Random random) {
+        int kind = random.nextInt(1000);
+        if (kind == 0) {
+            return 1e14 + random.nextDouble() * 1e16;
+        } else if (kind < 250) {
+            return (1 + random.nextInt(10000000)) / 100.0 + 0.005;
+        } else if (kind < 500) {
+            return (1 + random.nextInt(10000000)) / 100.0;
+        }
+        return 0.01 + random.nextDouble() * Math.pow(10, random.nextInt(9));
+    }
+}
@@ -0,0 +1,142 @@
+package ePortfolio;
+
+import java.util.Iterator;
+
+/**
+ * Consistent, immutable view of a portfolio at one version. Every change
+ * made to the portfolio publishes a new snapshot sharing most of its
+ * structure with the previous one, so taking a snapshot costs nothing and
+ * a snapshot never shows a change half applied.
+ *
+ * @author Me
+ */
+public final class PortfolioSnapshot implements Iterable<Holding> {
+
+    /**
+     * Number of changes published before this snapshot.
+     */
+    private final long version;
+
+    /**
+     * Holdings by investment identifier.
+     */
+    private final PersistentIdTrie<Holding> holdings;
+
+    /**
+     * Market values and book values of the stocks and the mutual funds.
+     */
+    private final double stockMarketValue;
+    private final double stockBookValue;
+    private final double mutualFundMarketValue;
+    private final double mutualFundBookValue;
+
+    /**
+     * Initialize a snapshot.
+     *
+     * @param version Version
+     * @param holdings Holdings by investment identifier
+     * @param marketValues Market values by position store type code
+     * @param bookValues Book values by position store type code
+     */
+    PortfolioSnapshot(long version, PersistentIdTrie<Holding> holdings, double[] marketValues, double[] bookValues) {
+        this.version = version;
+        this.holdings = holdings;
+        this.stockMarketValue = marketValues[ColumnarPositionStore.STOCK];
+        this.stockBookValue = bookValues[ColumnarPositionStore.STOCK];
+        this.mutualFundMarketValue = marketValues[ColumnarPositionStore.MUTUAL_FUND];
+        this.mutualFundBookValue = bookValues[ColumnarPositionStore.MUTUAL_FUND];
+    }
+
+    /**
+     * Return the version, which grows with every change to the portfolio.
+     *
+     * @return Version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return the number of holdings.
+     *
+     * @return Size
+     */
+    public int size() {
+        return holdings.size();
+    }
+
+    /**
+     * Return whether the portfolio held no investment.
+     *
+     * @return If empty
+     */
+    public boolean isEmpty() {
+        return holdings.size() == 0;
+    }
+
+    /**
+     * Return the holding at the given position in portfolio order.
+     *
+     * @param index Position, from 0 to size() - 1
+     * @return Holding
+     */
+    public Holding get(int index) {
+        return holdings.nth(index);
+    }
+
+    /**
+     * Return the holding of an investment identifier.
+     *
+     * @param id Identifier
+     * @return Holding, or null if there is none
+     */
+    Holding getById(int id) {
+        return holdings.get(id);
+    }
+
+    /**
+     * Return the holdings trie, for deriving the next snapshot.
+     *
+     * @return Holdings by investment identifier
+     */
+    PersistentIdTrie<Holding> getHoldings() {
+        return holdings;
+    }
+
+    /**
+     * Return the market value and book value of the whole portfolio.
+     *
+     * @return Totals of all investments
+     */
+    public PortfolioTotals getTotals() {
+        return new PortfolioTotals(stockMarketValue + mutualFundMarketValue, stockBookValue + mutualFundBookValue);
+    }
+
+    /**
+     * Return the market value and book value of the stocks.
+     *
+     * @return Totals of the stocks
+     */
+    public PortfolioTotals getStockTotals() {
+        return new PortfolioTotals(stockMarketValue, stockBookValue);
+    }
+
+    /**
+     * Return the market value and book value of the mutual funds.
+     *
+     * @return Totals of the mutual funds
+     */
+    public PortfolioTotals getMutualFundTotals() {
+        return new PortfolioTotals(mutualFundMarketValue, mutualFundBookValue);
+    }
+
+    /**
+     * Iterate the holdings in portfolio order.
+     *
+     * @return Iterator
+     */
+    @Override
+    public Iterator<Holding> iterator() {
+        return holdings.iterator();
+    }
+}
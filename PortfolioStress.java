@@ -0,0 +1,255 @@
+package ePortfolio;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Trades on one portfolio from many threads at once and checks that nothing
+ * was lost: every symbol must hold the quantity bought minus the quantity
+ * sold, and the running market value and book value totals must match a
+ * fresh sum over the investments. The same mix of buys, sells, price updates,
+ * lookups and searches is run at 1, 2, 4, 8, 16 and 32 threads, printing the
+ * throughput of each run. A first run, not printed, warms up.
+ *
+ * Usage: java ePortfolio.PortfolioStress [operations] [threads...]
+ *
+ * @author Me
+ */
+public final class PortfolioStress {
+
+    /**
+     * Default thread counts.
+     */
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    /**
+     * Default number of operations of one run, shared by its threads.
+     */
+    private static final int OPERATIONS = 200000;
+
+    /**
+     * Number of symbols traded, half stocks and half mutual funds, so
+     * threads often meet on the same investment.
+     */
+    private static final int SYMBOLS = 64;
+
+    /**
+     * Most shares bought or sold at once.
+     */
+    private static final int MAX_QUANTITY = 20;
+
+    /**
+     * Largest relative difference allowed between the running totals and a
+     * fresh sum, which add the same values in another order.
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    private PortfolioStress() {
+    }
+
+    /**
+     * Run the stress test at every thread count.
+     *
+     * @param args Optional number of operations followed by optional thread
+     * counts
+     * @throws Exception If a run fails or the temporary files cannot be
+     * written
+     */
+    public static void main(String[] args) throws Exception {
+        Locale.setDefault(Locale.US);
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : OPERATIONS;
+        int[] threads = THREADS;
+        if (args.length > 1) {
+            threads = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threads[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        boolean passed = true;
+        Path directory = Files.createTempDirectory("portfolio-stress");
+        try {
+            passed &= run(directory.resolve("warmup.txt"), threads[threads.length - 1], operations, false);
+            for (int count : threads) {
+                passed &= run(directory.resolve("portfolio-" + count + ".txt"), count, operations, true);
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Trade from several threads on a new portfolio, then check it.
+     *
+     * @param file Portfolio file, created empty here so that loading it
+     * finds no investments
+     * @param threads Number of threads
+     * @param operations Number of operations, shared by the threads
+     * @param measured Whether to print the throughput
+     * @return If the portfolio was left consistent
+     * @throws Exception If a thread fails
+     */
+    private static boolean run(Path file, int threads, int operations, boolean measured) throws Exception {
+        Files.createFile(file);
+        Portfolio portfolio = new Portfolio(file.toString());
+        AtomicLongArray expected = new AtomicLongArray(SYMBOLS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                long seed = i;
+                int share = operations / threads + (i < operations % threads ? 1 : 0);
+                workers.add(executor.submit(() -> trade(portfolio, expected, new Random(seed), share)));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (measured) {
+            System.out.printf("%3d threads %10.0f ops/s%n", threads, operations / (elapsed / 1e9));
+        }
+        return check(portfolio, expected, measured);
+    }
+
+    /**
+     * Run a share of the operations on one thread, recording every share
+     * bought or sold.
+     *
+     * @param portfolio Portfolio to trade on
+     * @param expected Quantity that should be held, by symbol number
+     * @param random Source of the operations
+     * @param operations Number of operations
+     */
+    private static void trade(Portfolio portfolio, AtomicLongArray expected, Random random, int operations) {
+        for (int i = 0; i < operations; i++) {
+            int number = random.nextInt(SYMBOLS);
+            String symbol = symbolOf(number);
+            int quantity = 1 + random.nextInt(MAX_QUANTITY);
+            double price = 1 + random.nextInt(10000) / 100.0;
+            int operation = random.nextInt(10);
+
+            if (operation < 4) {
+                if (number % 2 == 0) {
+                    portfolio.buyStock(symbol, quantity, () -> new Stock(symbol, "Stock " + symbol, quantity, price));
+                } else {
+                    portfolio.buyMutualFund(symbol, quantity, () -> new MutualFund(symbol, "Fund " + symbol, quantity, price));
+                }
+                expected.addAndGet(number, quantity);
+            } else if (operation < 7) {
+                try {
+                    OptionalDouble amount = portfolio.sell(symbol, quantity);
+                    if (amount.isPresent()) {
+                        expected.addAndGet(number, -quantity);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // More shares than held, nothing was sold
+                }
+            } else if (operation < 8) {
+                Map<String, Double> prices = new HashMap<>();
+                prices.put(symbol, price);
+                portfolio.updatePrices(prices);
+            } else if (operation < 9) {
+                portfolio.findStock(symbol);
+                portfolio.findMutualFund(symbol);
+            } else {
+                portfolio.searchInvestments("", number % 2 == 0 ? "stock" : "fund", price, price + 10);
+            }
+        }
+    }
+
+    /**
+     * Check the quantities and totals of a portfolio after the trading.
+     *
+     * @param portfolio Portfolio traded on
+     * @param expected Quantity that should be held, by symbol number
+     * @param verbose Whether to print the totals when they are right
+     * @return If every check passed
+     */
+    private static boolean check(Portfolio portfolio, AtomicLongArray expected, boolean verbose) {
+        boolean passed = true;
+
+        long expectedQuantity = 0;
+        long heldQuantity = 0;
+        for (int number = 0; number < SYMBOLS; number++) {
+            String symbol = symbolOf(number);
+            Investment investment = number % 2 == 0 ? portfolio.findStock(symbol) : portfolio.findMutualFund(symbol);
+            long held = investment == null ? 0 : investment.getQuantity();
+            if (held != expected.get(number)) {
+                System.out.println("  " + symbol + " holds " + held + " shares, expected " + expected.get(number));
+                passed = false;
+            }
+            expectedQuantity += expected.get(number);
+            heldQuantity += held;
+        }
+
+        double marketValue = 0;
+        double bookValue = 0;
+        for (Investment investment : portfolio.getInvestments()) {
+            marketValue += investment.getQuantity() * investment.getPrice();
+            bookValue += investment.getBookValue();
+        }
+        PortfolioTotals totals = portfolio.getTotals();
+        passed &= compare("market value", totals.getMarketValue(), marketValue);
+        passed &= compare("book value", totals.getBookValue(), bookValue);
+
+        if (verbose || !passed) {
+            System.out.printf("  %s: %d shares held, %d expected, book value %.2f, market value %.2f%n",
+                    passed ? "ok" : "FAILED", heldQuantity, expectedQuantity, bookValue, marketValue);
+        }
+        return passed;
+    }
+
+    /**
+     * Compare a running total with a fresh sum.
+     *
+     * @param name Name of the total
+     * @param running Running total kept by the portfolio
+     * @param scanned Sum over the investments
+     * @return If they match
+     */
+    private static boolean compare(String name, double running, double scanned) {
+        if (Math.abs(running - scanned) <= TOLERANCE * Math.max(1, Math.abs(scanned))) {
+            return true;
+        }
+        System.out.printf("  running %s %.6f, sum of the investments %.6f%n", name, running, scanned);
+        return false;
+    }
+
+    /**
+     * Return the symbol of a symbol number, stocks for even numbers and
+     * mutual funds for odd ones.
+     *
+     * @param number Symbol number
+     * @return Symbol
+     */
+    private static String symbolOf(int number) {
+        return (number % 2 == 0 ? "S" : "F") + number;
+    }
+}
@@ -0,0 +1,57 @@
+package ePortfolio;
+
+/**
+ * Market value and book value summed over a group of investments.
+ *
+ * @author Me
+ */
+public class PortfolioTotals {
+
+    /**
+     * Sum of quantity times price.
+     */
+    private final double marketValue;
+
+    /**
+     * Sum of book values.
+     */
+    private final double bookValue;
+
+    /**
+     * Initialize the totals.
+     *
+     * @param marketValue Sum of quantity times price
+     * @param bookValue Sum of book values
+     */
+    public PortfolioTotals(double marketValue, double bookValue) {
+        this.marketValue = marketValue;
+        this.bookValue = bookValue;
+    }
+
+    /**
+     * Return the market value.
+     *
+     * @return Market value
+     */
+    public double getMarketValue() {
+        return marketValue;
+    }
+
+    /**
+     * Return the book value.
+     *
+     * @return Book value
+     */
+    public double getBookValue() {
+        return bookValue;
+    }
+
+    /**
+     * Get the gain or loss amount depending on current prices.
+     *
+     * @return A gain or loss amount
+     */
+    public double getUnrealizedGainOrLoss() {
+        return marketValue - bookValue;
+    }
+}
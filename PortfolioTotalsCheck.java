@@ -0,0 +1,245 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the running totals of the portfolio against a full recompute. A
+ * random sequence of additions, purchases, sales, price changes, bulk price
+ * updates and removals is applied, and every few hundred steps the market
+ * value and book value totals of the portfolio, of its stocks, of its mutual
+ * funds and of its snapshot are compared with fresh sums over the
+ * investments. The position store must also stay within the most investments
+ * held at once, as investments sold out and bought again reuse their slots.
+ *
+ * The running totals add and subtract the same values in another order, so
+ * they may differ from the sums by rounding. The difference allowed is
+ * relative to the largest total seen so far.
+ *
+ * Usage: java ePortfolio.PortfolioTotalsCheck [steps] [seed]
+ *
+ * @author Me
+ */
+public final class PortfolioTotalsCheck {
+
+    /**
+     * Default number of random steps.
+     */
+    private static final int STEPS = 200000;
+
+    /**
+     * Number of steps between two checks.
+     */
+    private static final int CHECK_INTERVAL = 500;
+
+    /**
+     * Number of symbols used, so investments are often bought again after
+     * being removed.
+     */
+    private static final int SYMBOLS = 2000;
+
+    /**
+     * Largest difference allowed between a running total and a fresh sum,
+     * relative to the largest total seen so far.
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * Largest total seen so far.
+     */
+    private static double scale = 1;
+
+    /**
+     * Largest relative difference found so far.
+     */
+    private static double largestDrift;
+
+    /**
+     * Most investments held at once so far.
+     */
+    private static int peakCount;
+
+    private PortfolioTotalsCheck() {
+    }
+
+    /**
+     * Run the check.
+     *
+     * @param args Optional number of steps followed by an optional seed
+     * @throws IOException If the temporary files cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Locale.setDefault(Locale.US);
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : STEPS;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        boolean passed;
+        Path directory = Files.createTempDirectory("portfolio-totals");
+        try {
+            // An empty file loads without complaint, a missing one does not
+            Path file = Files.createFile(directory.resolve("portfolio.txt"));
+            passed = run(new Portfolio(file.toString()), new Random(seed), steps);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        System.out.printf("%s: %d steps, largest relative difference %.3g, at most %d investments held%n",
+                passed ? "ok" : "FAILED", steps, largestDrift, peakCount);
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Apply random steps to a portfolio, checking its totals regularly.
+     *
+     * @param portfolio Empty portfolio
+     * @param random Source of the steps
+     * @param steps Number of steps
+     * @return If every check passed
+     */
+    private static boolean run(Portfolio portfolio, Random random, int steps) {
+        for (int step = 1; step <= steps; step++) {
+            int number = random.nextInt(SYMBOLS);
+            String symbol = symbolOf(number);
+            Investment investment = number % 2 == 0 ? portfolio.findStock(symbol) : portfolio.findMutualFund(symbol);
+            int quantity = 1 + random.nextInt(500);
+            double price = 0.01 + random.nextInt(500000) / 100.0;
+            int operation = random.nextInt(10);
+
+            if (investment == null) {
+                if (number % 2 == 0) {
+                    portfolio.addToList(new Stock(symbol, "Stock " + symbol, quantity, price));
+                } else {
+                    portfolio.addToList(new MutualFund(symbol, "Fund " + symbol, quantity, price));
+                }
+            } else if (operation < 3) {
+                investment.add(quantity);
+            } else if (operation < 6) {
+                investment.reduce(Math.min(quantity, investment.getQuantity()));
+                if (investment.getQuantity() == 0) {
+                    portfolio.removeFromList(investment);
+                }
+            } else if (operation < 8) {
+                investment.setPrice(price);
+            } else if (operation < 9) {
+                Map<String, Double> prices = new HashMap<>();
+                for (int i = 0; i < 1 + random.nextInt(SYMBOLS / 4); i++) {
+                    prices.put(symbolOf(random.nextInt(SYMBOLS)), 0.01 + random.nextInt(500000) / 100.0);
+                }
+                portfolio.updatePrices(prices);
+            } else {
+                portfolio.removeFromList(investment);
+            }
+
+            peakCount = Math.max(peakCount, portfolio.getSnapshot().size());
+            if (step % CHECK_INTERVAL == 0 || step == steps) {
+                if (!check(portfolio, step)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare every running total of a portfolio with fresh sums.
+     *
+     * @param portfolio Portfolio to check
+     * @param step Number of steps applied so far
+     * @return If every total matches
+     */
+    private static boolean check(Portfolio portfolio, int step) {
+        double[] marketValues = new double[3];
+        double[] bookValues = new double[3];
+        List<Investment> investments = new ArrayList<>(portfolio.getInvestments());
+        for (Investment investment : investments) {
+            int type = investment instanceof Stock ? 1 : 2;
+            marketValues[type] += investment.getQuantity() * investment.getPrice();
+            bookValues[type] += investment.getBookValue();
+        }
+        marketValues[0] = marketValues[1] + marketValues[2];
+        bookValues[0] = bookValues[1] + bookValues[2];
+        scale = Math.max(scale, Math.max(Math.abs(marketValues[0]), Math.abs(bookValues[0])));
+
+        PortfolioSnapshot snapshot = portfolio.getSnapshot();
+        double snapshotMarketValue = 0;
+        double snapshotBookValue = 0;
+        for (Holding holding : snapshot) {
+            snapshotMarketValue += holding.getQuantity() * holding.getPrice();
+            snapshotBookValue += holding.getBookValue();
+        }
+
+        boolean passed = snapshot.size() == investments.size()
+                || report(step, "snapshot size", snapshot.size(), investments.size());
+        passed &= portfolio.getSlotCount() <= peakCount
+                || report(step, "slot count, above the most investments held,", portfolio.getSlotCount(), peakCount);
+        passed &= compare(step, "total", portfolio.getTotals(), marketValues[0], bookValues[0]);
+        passed &= compare(step, "stock", portfolio.getStockTotals(), marketValues[1], bookValues[1]);
+        passed &= compare(step, "mutual fund", portfolio.getMutualFundTotals(), marketValues[2], bookValues[2]);
+        passed &= compare(step, "snapshot", snapshot.getTotals(), marketValues[0], bookValues[0]);
+        passed &= compare(step, "snapshot holdings", new PortfolioTotals(snapshotMarketValue, snapshotBookValue), marketValues[0], bookValues[0]);
+        return passed;
+    }
+
+    /**
+     * Compare running totals with fresh sums.
+     *
+     * @param step Number of steps applied so far
+     * @param name Name of the totals
+     * @param totals Running totals
+     * @param marketValue Fresh sum of the market values
+     * @param bookValue Fresh sum of the book values
+     * @return If both totals match
+     */
+    private static boolean compare(int step, String name, PortfolioTotals totals, double marketValue, double bookValue) {
+        boolean passed = true;
+        double[][] pairs = {{totals.getMarketValue(), marketValue}, {totals.getBookValue(), bookValue}};
+        for (int i = 0; i < pairs.length; i++) {
+            double drift = Math.abs(pairs[i][0] - pairs[i][1]) / scale;
+            largestDrift = Math.max(largestDrift, drift);
+            if (drift > TOLERANCE) {
+                passed = report(step, name + (i == 0 ? " market value" : " book value"), pairs[i][0], pairs[i][1]);
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Print a mismatch.
+     *
+     * @param step Number of steps applied so far
+     * @param name Name of the value
+     * @param running Value kept by the portfolio
+     * @param scanned Value found by the fresh sum
+     * @return False, the check failed
+     */
+    private static boolean report(int step, String name, double running, double scanned) {
+        System.out.printf("Step %d: running %s %.6f, recomputed %.6f%n", step, name, running, scanned);
+        return false;
+    }
+
+    /**
+     * Return the symbol of a symbol number, stocks for even numbers and
+     * mutual funds for odd ones.
+     *
+     * @param number Symbol number
+     * @return Symbol
+     */
+    private static String symbolOf(int number) {
+        return (number % 2 == 0 ? "S" : "F") + number;
+    }
+}
@@ -0,0 +1,81 @@
+package ePortfolio;
+
+/**
+ * Storage for the numeric fields of investments, addressed by slot. An
+ * investment reads and writes its quantity, price and book value through the
+ * store it is bound to.
+ *
+ * @author Me
+ */
+abstract class PositionStore {
+
+    /**
+     * Return the quantity.
+     *
+     * @param slot Slot of the investment
+     * @return Quantity
+     */
+    abstract int getQuantity(int slot);
+
+    /**
+     * Update the quantity.
+     *
+     * @param slot Slot of the investment
+     * @param quantity Quantity
+     */
+    abstract void setQuantity(int slot, int quantity);
+
+    /**
+     * Return the price.
+     *
+     * @param slot Slot of the investment
+     * @return Price
+     */
+    abstract double getPrice(int slot);
+
+    /**
+     * Update the price.
+     *
+     * @param slot Slot of the investment
+     * @param price Price
+     */
+    abstract void setPrice(int slot, double price);
+
+    /**
+     * Return the book value.
+     *
+     * @param slot Slot of the investment
+     * @return Book value
+     */
+    abstract double getBookValue(int slot);
+
+    /**
+     * Update the book value.
+     *
+     * @param slot Slot of the investment
+     * @param bookValue Book value
+     */
+    abstract void setBookValue(int slot, double bookValue);
+
+    /**
+     * Return whether a slot still holds the investment of a generation.
+     *
+     * @param slot Slot of the investment
+     * @param generation Generation of the slot when the investment was seen
+     * @return If the investment was not removed
+     */
+    boolean isLive(int slot, int generation) {
+        return true;
+    }
+
+    /**
+     * Return the generation of a slot, which changes once the investment in
+     * it is removed.
+     *
+     * @param slot Slot of the investment
+     * @return Generation
+     */
+    int getGeneration(int slot) {
+        return 0;
+    }
+}
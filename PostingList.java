@@ -0,0 +1,170 @@
+package ePortfolio;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A sorted set of investment identifiers backed by a primitive array.
+ *
+ * @author Me
+ */
+final class PostingList {
+
+    /**
+     * Identifiers in ascending order, only the first size entries are used.
+     */
+    private int[] ids;
+
+    /**
+     * Number of identifiers in the list.
+     */
+    private int size;
+
+    /**
+     * Initialize an empty posting list.
+     */
+    PostingList() {
+        ids = new int[4];
+    }
+
+    /**
+     * Return the number of identifiers.
+     *
+     * @return Size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return whether the list holds no identifiers.
+     *
+     * @return If empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Return the identifier at the given position.
+     *
+     * @param index Position in the list
+     * @return Identifier
+     */
+    int get(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Add an identifier, keeping the list sorted. Appending an identifier
+     * larger than all others is the common case and takes constant time.
+     *
+     * @param id Identifier to add
+     * @return If the identifier was added, false if already present
+     */
+    boolean add(int id) {
+        int position = size;
+        if (size > 0 && ids[size - 1] >= id) {
+            position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+        }
+
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove an identifier if present.
+     *
+     * @param id Identifier to remove
+     * @return If the identifier was removed
+     */
+    boolean remove(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0) {
+            return false;
+        }
+
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Return whether the identifier is in the list.
+     *
+     * @param id Identifier to find
+     * @return If found
+     */
+    boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * Intersect posting lists, starting from the smallest one and galloping
+     * through the others, so the cost is close to linear in the smallest list.
+     *
+     * @param lists Posting lists to intersect
+     * @return Sorted identifiers present in every list
+     */
+    static int[] intersect(PostingList... lists) {
+        if (lists.length == 0) {
+            return new int[0];
+        }
+
+        PostingList[] ordered = lists.clone();
+        Arrays.sort(ordered, Comparator.comparingInt(PostingList::size));
+
+        int[] result = Arrays.copyOf(ordered[0].ids, ordered[0].size);
+        int count = result.length;
+
+        for (int i = 1; i < ordered.length && count > 0; i++) {
+            PostingList other = ordered[i];
+            int kept = 0;
+            int from = 0;
+
+            for (int j = 0; j < count && from < other.size; j++) {
+                from = other.gallop(result[j], from);
+                if (from < other.size && other.ids[from] == result[j]) {
+                    result[kept++] = result[j];
+                    from++;
+                }
+            }
+            count = kept;
+        }
+
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Find the first position at or after from holding an identifier not less
+     * than the target, probing exponentially growing steps first.
+     *
+     * @param target Identifier to find
+     * @param from Position to start from
+     * @return Position of the first identifier not less than target
+     */
+    private int gallop(int target, int from) {
+        int step = 1;
+        int low = from;
+        int high = from;
+
+        while (high < size && ids[high] < target) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+
+        high = Math.min(high, size);
+        int position = Arrays.binarySearch(ids, low, high, target);
+        return position >= 0 ? position : -position - 1;
+    }
+}
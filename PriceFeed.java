@@ -0,0 +1,429 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pushes prices into a portfolio from a tick file that another process keeps
+ * appending to. Every line of the file is a tick "symbol,price,timestamp".
+ *
+ * A reader thread tails the file and keeps only the latest tick of each
+ * symbol within a batching window. Closed windows wait in a bounded queue
+ * for an applier thread, which applies each batch to the portfolio itself
+ * and only hands the result to the given executor, so the thread owning the
+ * user interface never waits for the portfolio's lock. When applying falls
+ * behind, the queue fills up and the reader stops reading the file until
+ * there is room again.
+ *
+ * @author Me
+ */
+public class PriceFeed implements AutoCloseable {
+
+    /**
+     * Number of closed windows that may wait to be applied.
+     */
+    private static final int QUEUE_CAPACITY = 4;
+
+    /**
+     * Time to wait for new ticks once the end of the file is reached.
+     */
+    private static final long POLL_MILLIS = 20;
+
+    /**
+     * Latest tick of a symbol within the current window.
+     */
+    private static final class Tick {
+
+        /**
+         * Symbol as it appeared in the file.
+         */
+        final String symbol;
+
+        /**
+         * Price of the tick.
+         */
+        double price;
+
+        /**
+         * Timestamp of the tick.
+         */
+        long timestamp;
+
+        /**
+         * Initialize a tick.
+         *
+         * @param symbol Symbol
+         * @param price Price
+         * @param timestamp Timestamp
+         */
+        Tick(String symbol, double price, long timestamp) {
+            this.symbol = symbol;
+            this.price = price;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Prices of one closed window and the time it was closed.
+     */
+    private static final class Batch {
+
+        /**
+         * Latest price of every symbol in the window.
+         */
+        final Map<String, Double> prices;
+
+        /**
+         * Value of System.nanoTime() when the window closed.
+         */
+        final long closedAt;
+
+        /**
+         * Initialize a batch.
+         *
+         * @param prices Latest prices
+         * @param closedAt Time the window closed
+         */
+        Batch(Map<String, Double> prices, long closedAt) {
+            this.prices = prices;
+            this.closedAt = closedAt;
+        }
+    }
+
+    /**
+     * Portfolio receiving the prices.
+     */
+    private final Portfolio portfolio;
+
+    /**
+     * File of ticks.
+     */
+    private final Path file;
+
+    /**
+     * Length of a batching window in milliseconds.
+     */
+    private final long windowMillis;
+
+    /**
+     * Runs the listener, on the thread that owns the user interface.
+     */
+    private final Executor executor;
+
+    /**
+     * Receives the result of every batch applied.
+     */
+    private final Consumer<PriceUpdateResult> listener;
+
+    /**
+     * Closed windows waiting to be applied.
+     */
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Threads tailing the file and applying the batches.
+     */
+    private final Thread reader;
+    private final Thread applier;
+
+    /**
+     * Whether the feed was closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Counters of ticks read, ticks rejected as malformed and batches
+     * applied.
+     */
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong rejectedTicks = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Ticks per second measured over the last complete second.
+     */
+    private volatile double ticksPerSecond;
+
+    /**
+     * Time from closing a window to its prices being applied, in
+     * nanoseconds: total, largest and latest.
+     */
+    private final AtomicLong totalApplyNanos = new AtomicLong();
+    private final AtomicLong maxApplyNanos = new AtomicLong();
+    private volatile long lastApplyNanos;
+
+    /**
+     * Initialize a feed, not started yet.
+     *
+     * @param portfolio Portfolio receiving the prices
+     * @param file File of ticks
+     * @param windowMillis Length of a batching window in milliseconds
+     * @param executor Runs the listener, for example SwingUtilities::invokeLater
+     * @param listener Receives the result of every batch applied
+     */
+    public PriceFeed(Portfolio portfolio, Path file, long windowMillis, Executor executor, Consumer<PriceUpdateResult> listener) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Positive batching window is required.");
+        }
+
+        this.portfolio = portfolio;
+        this.file = file;
+        this.windowMillis = windowMillis;
+        this.executor = executor;
+        this.listener = listener;
+        this.reader = new Thread(this::readTicks, "price-feed-reader");
+        this.applier = new Thread(this::applyBatches, "price-feed-applier");
+        reader.setDaemon(true);
+        applier.setDaemon(true);
+    }
+
+    /**
+     * Start tailing the file from its beginning.
+     */
+    public void start() {
+        reader.start();
+        applier.start();
+    }
+
+    /**
+     * Stop the feed. Batches not applied yet are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+        applier.interrupt();
+    }
+
+    /**
+     * Return the number of ticks read.
+     *
+     * @return Number of ticks
+     */
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    /**
+     * Return the number of malformed lines skipped.
+     *
+     * @return Number of rejected ticks
+     */
+    public long getRejectedTicks() {
+        return rejectedTicks.get();
+    }
+
+    /**
+     * Return the number of batches applied.
+     *
+     * @return Number of batches
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Return the ticks read per second over the last complete second.
+     *
+     * @return Ticks per second
+     */
+    public double getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    /**
+     * Return the average time from closing a window to its prices being
+     * applied.
+     *
+     * @return Average apply latency in milliseconds
+     */
+    public double getAverageApplyLatencyMillis() {
+        long count = batches.get();
+        return count == 0 ? 0 : totalApplyNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Return the longest time from closing a window to its prices being
+     * applied.
+     *
+     * @return Largest apply latency in milliseconds
+     */
+    public double getMaxApplyLatencyMillis() {
+        return maxApplyNanos.get() / 1e6;
+    }
+
+    /**
+     * Return the time the last batch took from closing to being applied.
+     *
+     * @return Latest apply latency in milliseconds
+     */
+    public double getLastApplyLatencyMillis() {
+        return lastApplyNanos / 1e6;
+    }
+
+    /**
+     * Tail the file, coalescing ticks into windows, until the feed is
+     * closed.
+     */
+    private void readTicks() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        long position = 0;
+        Map<String, Tick> window = new LinkedHashMap<>();
+        long windowEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        long secondEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long secondTicks = 0;
+
+        try {
+            while (!closed) {
+                int read = 0;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    if (channel.size() < position) {
+                        // The file was truncated or replaced, start over
+                        position = 0;
+                        lineLength = 0;
+                    }
+
+                    buffer.clear();
+                    read = channel.read(buffer, position);
+                } catch (NoSuchFileException e) {
+                    // Not created yet
+                } catch (IOException e) {
+                    System.err.println("Cannot read price feed '" + file + "'");
+                }
+
+                if (read > 0) {
+                    position += read;
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        if (b == '\n') {
+                            if (addTick(window, line, lineLength)) {
+                                secondTicks++;
+                            }
+                            lineLength = 0;
+                        } else {
+                            if (lineLength == line.length) {
+                                line = Arrays.copyOf(line, line.length * 2);
+                            }
+                            line[lineLength++] = b;
+                        }
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - secondEnd >= 0) {
+                    ticksPerSecond = secondTicks;
+                    secondTicks = 0;
+                    secondEnd = now + TimeUnit.SECONDS.toNanos(1);
+                }
+
+                if (now - windowEnd >= 0) {
+                    if (!window.isEmpty()) {
+                        Map<String, Double> prices = new HashMap<>();
+                        for (Tick tick : window.values()) {
+                            prices.put(tick.symbol, tick.price);
+                        }
+                        window.clear();
+
+                        // Blocks while applying is behind, which pauses reading
+                        queue.put(new Batch(prices, now));
+                    }
+                    windowEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                }
+
+                if (read <= 0) {
+                    Thread.sleep(POLL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Parse one line and keep it if it is the latest tick of its symbol in
+     * the window.
+     *
+     * @param window Latest ticks by lower case symbol
+     * @param line Bytes of the line
+     * @param length Length of the line
+     * @return If the line held a valid tick
+     */
+    private boolean addTick(Map<String, Tick> window, byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return false;
+        }
+
+        String[] fields = new String(line, 0, length, StandardCharsets.UTF_8).split(",");
+        try {
+            if (fields.length != 3 || fields[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Malformed tick");
+            }
+
+            String symbol = fields[0].trim();
+            double price = Double.parseDouble(fields[1].trim());
+            long timestamp = Long.parseLong(fields[2].trim());
+            ticks.incrementAndGet();
+
+            Tick tick = window.get(symbol.toLowerCase());
+            if (tick == null) {
+                window.put(symbol.toLowerCase(), new Tick(symbol, price, timestamp));
+            } else if (timestamp >= tick.timestamp) {
+                tick.price = price;
+                tick.timestamp = timestamp;
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            rejectedTicks.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Apply the closed windows one after the other until the feed is closed.
+     */
+    private void applyBatches() {
+        try {
+            while (!closed) {
+                Batch batch = queue.take();
+                try {
+                    PriceUpdateResult result = portfolio.updatePrices(batch.prices);
+                    if (!result.getInvalidPrices().isEmpty()) {
+                        System.err.println("Skipping invalid feed prices for " + result.getInvalidPrices());
+                    }
+                    executor.execute(() -> listener.accept(result));
+                } catch (RuntimeException e) {
+                    System.err.println("Cannot apply price feed batch: " + e);
+                }
+
+                long latency = System.nanoTime() - batch.closedAt;
+                lastApplyNanos = latency;
+                totalApplyNanos.addAndGet(latency);
+                maxApplyNanos.accumulateAndGet(latency, Math::max);
+                batches.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk price update: how many investments were repriced and
+ * which entries were skipped.
+ *
+ * @author Me
+ */
+public class PriceUpdateResult {
+
+    /**
+     * Number of investments whose price was set.
+     */
+    private int updated;
+
+    /**
+     * Symbols matching no investment in the portfolio.
+     */
+    private final List<String> unknownSymbols = new ArrayList<>();
+
+    /**
+     * Symbols given a missing, non positive or non finite price.
+     */
+    private final List<String> invalidPrices = new ArrayList<>();
+
+    /**
+     * Return the number of investments whose price was set.
+     *
+     * @return Number of updated investments
+     */
+    public int getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Return the symbols matching no investment.
+     *
+     * @return Unknown symbols
+     */
+    public List<String> getUnknownSymbols() {
+        return unknownSymbols;
+    }
+
+    /**
+     * Return the symbols given an invalid price.
+     *
+     * @return Symbols with an invalid price
+     */
+    public List<String> getInvalidPrices() {
+        return invalidPrices;
+    }
+
+    /**
+     * Return whether every entry was applied.
+     *
+     * @return If no entry was skipped
+     */
+    public boolean isComplete() {
+        return unknownSymbols.isEmpty() && invalidPrices.isEmpty();
+    }
+
+    /**
+     * Count one more updated investment.
+     */
+    void addUpdated() {
+        updated++;
+    }
+
+    /**
+     * Report a symbol matching no investment.
+     *
+     * @param symbol Symbol
+     */
+    void addUnknownSymbol(String symbol) {
+        unknownSymbols.add(symbol);
+    }
+
+    /**
+     * Report a symbol given an invalid price.
+     *
+     * @param symbol Symbol
+     */
+    void addInvalidPrice(String symbol) {
+        invalidPrices.add(symbol);
+    }
+}
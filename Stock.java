@@ -28,7 +28,6 @@ public class Stock extends Investment {
      */
     public Stock(String stockSymbol, String stockName, int stockQuantity, double stockPrice) {
         super(stockSymbol, stockName, stockQuantity, stockPrice);
-        bookValue += EXCHANGE_FEE;
     }
 
     /**
@@ -48,15 +47,24 @@ public class Stock extends Investment {
     }
 
     /**
-     * Purchase additional number of shares using the stored price. Book value
-     * will be adjusted accordingly.
+     * Initialize a view of a stock held by a portfolio.
      *
-     * @param additionalQuantity Additional quantity to purchase
-     * @throws IllegalArgumentException If quantity is invalid.
+     * @param store Position store of the portfolio
+     * @param slot Slot of the stock
+     * @param listener Listener of the portfolio
      */
-    public void add(int additionalQuantity) {
-        super.add(additionalQuantity);
-        bookValue += EXCHANGE_FEE;
+    Stock(ColumnarPositionStore store, int slot, InvestmentListener listener) {
+        super(store, slot, listener);
+    }
+
+    /**
+     * Return the exchange fee paid whenever additional shares are purchased.
+     *
+     * @return Purchase fee
+     */
+    @Override
+    protected double getPurchaseFee() {
+        return EXCHANGE_FEE;
     }
 
     /**
@@ -77,8 +85,8 @@ public class Stock extends Investment {
      */
     @Override
     public String toString() {
-        String str = "Type: Stock\n";
-        str += super.toString();
-        return str;
+        StringBuilder str = new StringBuilder(160);
+        InvestmentFormatter.appendTo(str, this);
+        return str.toString();
     }
 }
@@ -0,0 +1,149 @@
+package ePortfolio;
+
+/**
+ * Index of the investments of a position store by symbol, ignoring case. The
+ * table holds slots only and compares the symbols kept by the store, so an
+ * entry costs an int rather than a map entry, a boxed value and a lower case
+ * copy of the symbol.
+ *
+ * Collisions are resolved by linear probing, and removing an entry shifts
+ * the following entries back, so lookups never meet deleted markers.
+ *
+ * @author Me
+ */
+final class SymbolIndex {
+
+    /**
+     * Store holding the symbols.
+     */
+    private final ColumnarPositionStore store;
+
+    /**
+     * Slots plus one, 0 where empty. The length is a power of two.
+     */
+    private int[] table = new int[16];
+
+    /**
+     * Right shift turning a mixed hash into a position of the table.
+     */
+    private int shift = Integer.SIZE - 4;
+
+    /**
+     * Number of slots in the table.
+     */
+    private int size;
+
+    /**
+     * Initialize an empty index.
+     *
+     * @param store Store holding the symbols
+     */
+    SymbolIndex(ColumnarPositionStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Find the first investment of a type with the symbol.
+     *
+     * @param symbol Symbol, in any case
+     * @param type Type code of the investment
+     * @return Lowest slot of a matching investment, or -1 if there is none
+     */
+    int find(String symbol, byte type) {
+        int mask = table.length - 1;
+        int found = -1;
+        for (int i = position(symbol); table[i] != 0; i = (i + 1) & mask) {
+            int slot = table[i] - 1;
+            if ((found < 0 || slot < found) && store.getType(slot) == type && store.getSymbol(slot).equalsIgnoreCase(symbol)) {
+                found = slot;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Add an investment, whose symbol is already in the store.
+     *
+     * @param slot Slot of the investment
+     */
+    void add(int slot) {
+        if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        insert(slot);
+        size++;
+    }
+
+    /**
+     * Remove an investment, before its symbol leaves the store.
+     *
+     * @param slot Slot of the investment
+     */
+    void remove(int slot) {
+        int mask = table.length - 1;
+        int i = position(store.getSymbol(slot));
+        while (table[i] != slot + 1) {
+            if (table[i] == 0) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Move back the entries that probed past the removed one
+        table[i] = 0;
+        size--;
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = position(store.getSymbol(table[j] - 1));
+            boolean reachable = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!reachable) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Rebuild the table with another length.
+     *
+     * @param length New length, a power of two
+     */
+    private void resize(int length) {
+        int[] old = table;
+        table = new int[length];
+        shift = Integer.SIZE - Integer.numberOfTrailingZeros(length);
+        for (int entry : old) {
+            if (entry != 0) {
+                insert(entry - 1);
+            }
+        }
+    }
+
+    /**
+     * Put a slot in the first empty position from its home.
+     *
+     * @param slot Slot of the investment
+     */
+    private void insert(int slot) {
+        int mask = table.length - 1;
+        int i = position(store.getSymbol(slot));
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    /**
+     * Return the home position of a symbol, the same in any case.
+     *
+     * @param symbol Symbol
+     * @return Position in the table
+     */
+    private int position(String symbol) {
+        int hash = 0;
+        for (int i = 0; i < symbol.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(symbol.charAt(i)));
+        }
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+}